@@ -0,0 +1,133 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Micro-benchmarks of Gitlet's storage layer, run outside of any
+ *  repository with "java gitlet.Benchmark" (or "make bench"). Each one
+ *  works on files in a fresh temporary directory and prints one line of
+ *  results.
+ *  @author Thu Nguyen
+ */
+public class Benchmark {
+    /** Number of objects written by each benchmark. */
+    static final int OBJECTS = 2000;
+    /** Approximate size of each generated text object, in bytes. */
+    static final int OBJECT_SIZE = 8192;
+    /** Words that generated text is made of. */
+    private static final String[] WORDS = {
+        "commit", "branch", "merge", "blob", "the", "of", "file", "staged",
+        "public", "static", "void", "return", "String", "int", "for", "if",
+    };
+
+    /** Run every benchmark. ARGS is ignored. */
+    public static void main(String... args) throws IOException {
+        byte[][] objects = textObjects(new Random(61));
+        compression(objects);
+        durability(objects);
+    }
+
+    /** Return OBJECTS text objects of roughly OBJECT_SIZE bytes, with words
+     *  drawn from RANDOM. */
+    static byte[][] textObjects(Random random) {
+        byte[][] objects = new byte[OBJECTS][];
+        for (int i = 0; i < OBJECTS; i += 1) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < OBJECT_SIZE) {
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+                text.append(random.nextInt(8) == 0 ? "\n" : " ");
+            }
+            objects[i] = text.toString().getBytes();
+        }
+        return objects;
+    }
+
+    /** Compare disk use and read latency of OBJECTS stored as plain loose
+     *  objects and as zlib-compressed loose objects. */
+    static void compression(byte[][] objects) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File[] plain = new File[objects.length];
+        File[] deflated = new File[objects.length];
+        for (int i = 0; i < objects.length; i += 1) {
+            plain[i] = join(dir, "plain" + i);
+            deflated[i] = join(dir, "zlib" + i);
+            writeContents(plain[i], objects[i]);
+            ObjectStore.writeDeflated(deflated[i], objects[i]);
+        }
+        long plainBytes = 0, deflatedBytes = 0;
+        for (int i = 0; i < objects.length; i += 1) {
+            plainBytes += plain[i].length();
+            deflatedBytes += deflated[i].length();
+        }
+        for (int i = 0; i < objects.length; i += 1) {
+            readContents(plain[i]);
+            ObjectStore.readInflated(deflated[i]);
+        }
+        long start = System.nanoTime();
+        for (File file : plain) {
+            readContents(file);
+        }
+        long plainNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (File file : deflated) {
+            ObjectStore.readInflated(file);
+        }
+        long deflatedNanos = System.nanoTime() - start;
+        System.out.printf("compression: %d objects, plain %d bytes "
+                + "%.1f us/read, zlib %d bytes %.1f us/read (%.2fx smaller)%n",
+                objects.length, plainBytes,
+                plainNanos / 1e3 / objects.length, deflatedBytes,
+                deflatedNanos / 1e3 / objects.length,
+                (double) plainBytes / deflatedBytes);
+        deleteTree(dir);
+    }
+
+    /** Report how many of OBJECTS per second can be written atomically
+     *  without forcing them to disk, forcing each one as it is written,
+     *  and forcing them all with one barrier as commands do. */
+    static void durability(byte[][] objects) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        Durability.setEnabled(false);
+        timeWrites(dir, objects, false);
+        long off = timeWrites(dir, objects, false);
+        Durability.setEnabled(true);
+        long each = timeWrites(dir, objects, true);
+        long batched = timeWrites(dir, objects, false);
+        System.out.printf("durability: %d objects, no fsync %.0f obj/s, "
+                + "fsync per object %.0f obj/s, one fsync pass %.0f obj/s%n",
+                objects.length, objects.length / (off / 1e9),
+                objects.length / (each / 1e9),
+                objects.length / (batched / 1e9));
+        deleteTree(dir);
+    }
+
+    /** Return the nanoseconds taken to write OBJECTS into DIR with
+     *  writeContents and force them to disk, with a barrier after each
+     *  object if EACH, else with one barrier at the end. */
+    static long timeWrites(File dir, byte[][] objects, boolean each) {
+        long start = System.nanoTime();
+        for (int i = 0; i < objects.length; i += 1) {
+            writeContents(join(dir, "obj" + i), objects[i]);
+            if (each) {
+                Durability.barrier();
+            }
+        }
+        Durability.barrier();
+        return System.nanoTime() - start;
+    }
+
+    /** Delete DIR and the plain files inside it. */
+    static void deleteTree(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
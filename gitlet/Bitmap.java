@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, organized as Roaring bitmaps
+ *  are: ints are grouped by their high 16 bits, and each group is kept in
+ *  a container of its low 16 bits, either a sorted array while the group
+ *  is small or a plain 65536-bit bitmap once it holds more than
+ *  ARRAY_LIMIT ints. Sets of nearby ints, such as the positions of the
+ *  ancestors of a commit, thus take about one bit each.
+ *  @author Thu Nguyen
+ */
+class Bitmap {
+    /** Most ints held by an array container. */
+    static final int ARRAY_LIMIT = 4096;
+    /** Number of longs in a bitmap container. */
+    static final int WORDS = 1024;
+    /** Kind byte of an array container. */
+    private static final byte ARRAY = 'a';
+    /** Kind byte of a bitmap container. */
+    private static final byte BITS = 'b';
+
+    /** High 16 bits of each group, sorted. */
+    private char[] _keys = new char[4];
+    /** Container of each group: a sorted char[] or a long[WORDS]. */
+    private Object[] _containers = new Object[4];
+    /** Number of ints in each array container. */
+    private int[] _sizes = new int[4];
+    /** Number of groups. */
+    private int _count;
+
+    /** Add N to the set. */
+    void add(int n) {
+        int i = indexOf((char) (n >>> 16), true);
+        char low = (char) n;
+        if (_containers[i] instanceof long[]) {
+            ((long[]) _containers[i])[low >>> 6] |= 1L << low;
+            return;
+        }
+        char[] array = (char[]) _containers[i];
+        int at = Arrays.binarySearch(array, 0, _sizes[i], low);
+        if (at >= 0) {
+            return;
+        } else if (_sizes[i] == ARRAY_LIMIT) {
+            _containers[i] = toBits(array, _sizes[i]);
+            add(n);
+            return;
+        }
+        at = -at - 1;
+        if (_sizes[i] == array.length) {
+            array = Arrays.copyOf(array, Math.min(2 * array.length,
+                    ARRAY_LIMIT));
+            _containers[i] = array;
+        }
+        System.arraycopy(array, at, array, at + 1, _sizes[i] - at);
+        array[at] = low;
+        _sizes[i] += 1;
+    }
+
+    /** Return whether N is in the set. */
+    boolean contains(int n) {
+        int i = indexOf((char) (n >>> 16), false);
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) n;
+        if (_containers[i] instanceof long[]) {
+            return (((long[]) _containers[i])[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) _containers[i], 0, _sizes[i],
+                low) >= 0;
+    }
+
+    /** Add every int in OTHER to the set. */
+    void or(Bitmap other) {
+        for (int j = 0; j < other._count; j += 1) {
+            int i = indexOf(other._keys[j], true);
+            long[] bits = _containers[i] instanceof long[]
+                    ? (long[]) _containers[i]
+                    : toBits((char[]) _containers[i], _sizes[i]);
+            if (other._containers[j] instanceof long[]) {
+                long[] words = (long[]) other._containers[j];
+                for (int w = 0; w < WORDS; w += 1) {
+                    bits[w] |= words[w];
+                }
+            } else {
+                char[] array = (char[]) other._containers[j];
+                for (int k = 0; k < other._sizes[j]; k += 1) {
+                    bits[array[k] >>> 6] |= 1L << array[k];
+                }
+            }
+            _containers[i] = compact(bits, i);
+        }
+    }
+
+    /** Pass every int in the set to ACTION, in increasing order. */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < _count; i += 1) {
+            int high = _keys[i] << 16;
+            if (_containers[i] instanceof long[]) {
+                long[] bits = (long[]) _containers[i];
+                for (int w = 0; w < WORDS; w += 1) {
+                    for (long word = bits[w]; word != 0;
+                         word &= word - 1) {
+                        action.accept(high | (w << 6)
+                                | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            } else {
+                char[] array = (char[]) _containers[i];
+                for (int k = 0; k < _sizes[i]; k += 1) {
+                    action.accept(high | array[k]);
+                }
+            }
+        }
+    }
+
+    /** Return the encoding of the set: the number of groups, then for
+     *  each its high bits, kind, and either the number of ints and their
+     *  low bits or the WORDS words of its bitmap. */
+    byte[] encode() {
+        int size = 4;
+        for (int i = 0; i < _count; i += 1) {
+            size += 3 + (_containers[i] instanceof long[] ? 8 * WORDS
+                    : 2 + 2 * _sizes[i]);
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(_count);
+        for (int i = 0; i < _count; i += 1) {
+            out.putChar(_keys[i]);
+            if (_containers[i] instanceof long[]) {
+                out.put(BITS);
+                for (long word : (long[]) _containers[i]) {
+                    out.putLong(word);
+                }
+            } else {
+                out.put(ARRAY);
+                out.putChar((char) (_sizes[i] - 1));
+                out.asCharBuffer().put((char[]) _containers[i], 0,
+                        _sizes[i]);
+                out.position(out.position() + 2 * _sizes[i]);
+            }
+        }
+        return out.array();
+    }
+
+    /** Return the set encoded in IN by encode, advancing IN past it. */
+    static Bitmap decode(ByteBuffer in) {
+        Bitmap bitmap = new Bitmap();
+        int count = in.getInt();
+        for (int i = 0; i < count; i += 1) {
+            int j = bitmap.indexOf(in.getChar(), true);
+            if (in.get() == BITS) {
+                long[] bits = new long[WORDS];
+                in.asLongBuffer().get(bits);
+                in.position(in.position() + 8 * WORDS);
+                bitmap._containers[j] = bits;
+            } else {
+                int size = in.getChar() + 1;
+                char[] array = new char[size];
+                in.asCharBuffer().get(array);
+                in.position(in.position() + 2 * size);
+                bitmap._containers[j] = array;
+                bitmap._sizes[j] = size;
+            }
+        }
+        return bitmap;
+    }
+
+    /** Return the index of the group with high bits KEY. If there is none,
+     *  return a negative number, or if ADD, add an empty group and return
+     *  its index. */
+    private int indexOf(char key, boolean add) {
+        int i = Arrays.binarySearch(_keys, 0, _count, key);
+        if (i >= 0 || !add) {
+            return i;
+        }
+        i = -i - 1;
+        if (_count == _keys.length) {
+            _keys = Arrays.copyOf(_keys, 2 * _count);
+            _containers = Arrays.copyOf(_containers, 2 * _count);
+            _sizes = Arrays.copyOf(_sizes, 2 * _count);
+        }
+        System.arraycopy(_keys, i, _keys, i + 1, _count - i);
+        System.arraycopy(_containers, i, _containers, i + 1, _count - i);
+        System.arraycopy(_sizes, i, _sizes, i + 1, _count - i);
+        _keys[i] = key;
+        _containers[i] = new char[4];
+        _sizes[i] = 0;
+        _count += 1;
+        return i;
+    }
+
+    /** Return the bitmap of the first SIZE low bits in ARRAY. */
+    private static long[] toBits(char[] array, int size) {
+        long[] bits = new long[WORDS];
+        for (int k = 0; k < size; k += 1) {
+            bits[array[k] >>> 6] |= 1L << array[k];
+        }
+        return bits;
+    }
+
+    /** Return BITS as the container of group I: an array container,
+     *  recording its size, if it holds no more than ARRAY_LIMIT ints. */
+    private Object compact(long[] bits, int i) {
+        int size = 0;
+        for (long word : bits) {
+            size += Long.bitCount(word);
+        }
+        if (size > ARRAY_LIMIT) {
+            return bits;
+        }
+        char[] array = new char[Math.max(size, 1)];
+        int k = 0;
+        for (int w = 0; w < WORDS; w += 1) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                array[k] = (char) ((w << 6)
+                        | Long.numberOfTrailingZeros(word));
+                k += 1;
+            }
+        }
+        _sizes[i] = size;
+        return array;
+    }
+}
@@ -1,15 +1,20 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 
 import static gitlet.Utils.*;
-import static gitlet.MainUtils.*;
 
 /** Essentially the contents of files.
+ *  A blob's ID, [FILENAME][CONTENT UID], is the entry commits and the
+ *  staging area record to map a path to its contents. The contents
+ *  themselves are stored once, as the object named by the CONTENT UID
+ *  alone, however many paths share them.
  *  @author Thu Nguyen
  **/
 public class Blob implements Serializable {
@@ -24,15 +29,29 @@ public class Blob implements Serializable {
 
     /** Construct a Blob object, contains pointer to CONTENT, FILENAME,
      *  unique Blob ID serialized using ONLY the content. Write
-     *  variables out to .gitlet/objects/[ID].txt:
-     *  Inside the file is [CONTENT]. */
+     *  variables out to .gitlet/objects/[FANOUT]/[CONTENT UID] unless
+     *  identical contents are already stored:
+     *  Inside the file is [CONTENT], copied byte for byte. CONTENT is
+     *  streamed, never held in memory as a whole. Contents of at least
+     *  ChunkedBlob.THRESHOLD bytes are stored as chunks instead. CONTENT
+     *  is not read at all if the stat cache (StatCache) knows its UID and
+     *  the contents are already stored. */
     public Blob(String fileName, File content) {
         _fileName = fileName;
         _content = content;
-        String readContent = readContentsAsString(content);
-        _id = fileName + sha1(readContent);
-        writeContents(join(OBJECTS_DIR.toString(), _id),
-                readContent);
+        String uid = StatCache.cached(fileName, content);
+        if (uid != null && isStored(uid)) {
+            _id = fileName + uid;
+            return;
+        }
+        long[] stat = StatCache.stat(content);
+        if (content.length() >= ChunkedBlob.THRESHOLD) {
+            uid = ChunkedBlob.ingest(content);
+        } else {
+            uid = ObjectStore.ingest(content);
+        }
+        StatCache.record(fileName, content, stat, uid);
+        _id = fileName + uid;
     }
 
     /** Return the blob's file name. */
@@ -45,12 +64,56 @@ public class Blob implements Serializable {
         return _id;
     }
 
-    /** Return blob from its full ID. Return null if blob does not exist.*/
-    static File getBlobFile(String id) {
-        if (Files.exists(Paths.get(OBJECTS_DIR.toString(), id))) {
-            return join(OBJECTS_DIR.toString(), id);
+    /** Return a stream of the contents of blob from its full ID. Return
+     *  null if blob does not exist. Chunked contents are reassembled as
+     *  they are read. Blobs stored before contents were addressed alone
+     *  are still found under their full ID.*/
+    static InputStream openBlob(String id) {
+        String contentId = getBlobContentId(id);
+        InputStream contents = ObjectStore.open(contentId);
+        if (contents == null) {
+            contents = ChunkedBlob.open(contentId);
+        }
+        if (contents == null) {
+            contents = ObjectStore.open(id);
         }
-        return null;
+        return contents;
+    }
+
+    /** Copy the contents of blob with ID into FILE, creating or
+     *  overwriting it. Object bytes go straight from the store to the
+     *  channel of a temporary file (see ObjectStore.copyTo) instead of
+     *  through strings, and the temporary file replaces FILE only once
+     *  complete, so a missing or unreadable object leaves FILE as it was. */
+    static void copyBlob(String id, File file) {
+        String contentId = getBlobContentId(id);
+        if (!isStored(contentId) && !ObjectStore.exists(id)) {
+            throw error("Contents of %s are missing.", getBlobFileName(id));
+        }
+        file.getParentFile().mkdirs();
+        File tmp = Durability.tempFor(file);
+        try (FileChannel out = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.WRITE)) {
+            if (!ObjectStore.copyTo(contentId, out)
+                    && !ChunkedBlob.copyTo(contentId, out)
+                    && !ObjectStore.copyTo(id, out)) {
+                throw error("Contents of %s are missing.",
+                        getBlobFileName(id));
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (GitletException | IllegalArgumentException excp) {
+            tmp.delete();
+            throw excp;
+        }
+        Durability.commit(tmp, file);
+    }
+
+    /** Return the ID of the object holding the contents of the blob with
+     *  ID. */
+    static String getBlobContentId(String id) {
+        return id.substring(id.length() - UID_LENGTH);
     }
 
     /** Return the file name of the blob using ID. */
@@ -58,6 +121,13 @@ public class Blob implements Serializable {
         return id.substring(0, id.length() - UID_LENGTH);
     }
 
+    /** Return whether the contents with UID are stored, whole or as
+     *  chunks. */
+    static boolean isStored(String uid) {
+        return ObjectStore.exists(uid)
+                || ObjectStore.exists(ChunkedBlob.manifestId(uid));
+    }
+
     /** Return whether the ID is a blob's ID. */
     static boolean isBlobId(String id) {
         return id.substring(0, 5).compareTo("comm_") != 0;
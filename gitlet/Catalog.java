@@ -0,0 +1,238 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static gitlet.Commit.isCommitId;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Append-only catalog of every commit, read by global-log without
+ *  touching the object store. .gitlet/catalog holds one fixed-size record
+ *  per commit, in the order commits were made:
+ *  [UID][PARENT 1][PARENT 2][TIME][ZONE OFFSET][MESSAGE OFFSET][LENGTH],
+ *  with UIDs as raw 20-byte SHA-1s (all zero for a missing parent) and the
+ *  message found at MESSAGE OFFSET in .gitlet/catalog.messages, to which
+ *  messages are appended as UTF-8. Messages are appended before records,
+ *  and a record cut short by an interrupted append is ignored. The catalog
+ *  is rebuilt from the object store when it is missing.
+ *  @author Thu Nguyen
+ */
+class Catalog {
+    /** The file of records. */
+    static final File CATALOG_FILE = join(DOT_GITLET_DIR.toString(),
+            "catalog");
+    /** The file of messages. */
+    static final File MESSAGES_FILE = join(DOT_GITLET_DIR.toString(),
+            "catalog.messages");
+    /** Size of a raw SHA-1 UID. */
+    static final int KEY_SIZE = 20;
+    /** Size of a record: three UIDs, long time, int zone offset, long
+     *  message offset, int message length. */
+    static final int RECORD_SIZE = 3 * KEY_SIZE + 8 + 4 + 8 + 4;
+
+    /** A commit as recorded in the catalog. */
+    static class Entry {
+        /** UID of the commit. */
+        private final String _uid;
+        /** UIDs of its parents, null where absent. */
+        private final String[] _parents;
+        /** Time of the commit in milliseconds. */
+        private final long _millis;
+        /** Offset of its time zone from UTC, in minutes. */
+        private final int _offset;
+        /** Its log message. */
+        private final String _message;
+
+        /** An entry for the commit with UID, PARENTS, MILLIS, time zone
+         *  OFFSET and MESSAGE. */
+        Entry(String uid, String[] parents, long millis, int offset,
+              String message) {
+            _uid = uid;
+            _parents = parents;
+            _millis = millis;
+            _offset = offset;
+            _message = message;
+        }
+
+        /** Return the commit's UID. */
+        String getUID() {
+            return _uid;
+        }
+
+        /** Return the UIDs of the commit's parents, null where absent. */
+        String[] getParentsID() {
+            return _parents;
+        }
+
+        /** Return the commit's time stamp, formatted as in log. */
+        String getTimeStamp() {
+            return Commit.formatTimestamp(_millis, _offset);
+        }
+
+        /** Return the commit's log message. */
+        String getLogMessage() {
+            return _message;
+        }
+    }
+
+    /** Append the newly made COMMIT to the catalog. */
+    static void add(Commit commit) {
+        if (!CATALOG_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        byte[] message = commit.getLogMessage().getBytes(
+                StandardCharsets.UTF_8);
+        long messageOffset = MESSAGES_FILE.length();
+        append(MESSAGES_FILE, ByteBuffer.wrap(message));
+        long size = CATALOG_FILE.length();
+        if (size % RECORD_SIZE != 0) {
+            truncate(CATALOG_FILE, size - size % RECORD_SIZE);
+        }
+        append(CATALOG_FILE, record(commit, messageOffset, message.length));
+    }
+
+    /** Delete the catalog after commits were deleted or replaced, so that
+     *  it is rebuilt when next needed. */
+    static void invalidate() {
+        for (File file : new File[] {CATALOG_FILE, MESSAGES_FILE}) {
+            if (file.delete()) {
+                Durability.written(file);
+            }
+        }
+    }
+
+    /** Pass the entries of the most recently made commits to ACTION, newest
+     *  first, stopping after LIMIT entries or at the first commit made
+     *  before SINCE (in milliseconds). Only the entries passed, plus one,
+     *  are read. */
+    static void newest(int limit, long since, Consumer<Entry> action) {
+        if (!CATALOG_FILE.isFile()) {
+            rebuild();
+        }
+        MappedByteBuffer records = map(CATALOG_FILE);
+        MappedByteBuffer messages = map(MESSAGES_FILE);
+        int count = records.capacity() / RECORD_SIZE;
+        for (int i = count - 1; i >= 0 && count - 1 - i < limit; i -= 1) {
+            int pos = i * RECORD_SIZE;
+            String uid = uidAt(records, pos);
+            String[] parents = {uidAt(records, pos + KEY_SIZE),
+                uidAt(records, pos + 2 * KEY_SIZE)};
+            long millis = records.getLong(pos + 3 * KEY_SIZE);
+            if (millis < since) {
+                break;
+            }
+            int offset = records.getInt(pos + 3 * KEY_SIZE + 8);
+            byte[] message = new byte[records.getInt(
+                    pos + 3 * KEY_SIZE + 20)];
+            messages.get((int) records.getLong(pos + 3 * KEY_SIZE + 12),
+                    message);
+            action.accept(new Entry(uid, parents, millis, offset,
+                    new String(message, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /** Rewrite the catalog from every commit in the object store, oldest
+     *  first. */
+    private static void rebuild() {
+        ArrayList<Commit> commits = new ArrayList<>();
+        for (String id : ObjectStore.listIds()) {
+            if (isCommitId(id)) {
+                commits.add(Commit.getCommit(id.substring(5)));
+            }
+        }
+        commits.sort((x, y) -> Long.compare(x.getTimeMillis(),
+                y.getTimeMillis()));
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        for (Commit commit : commits) {
+            byte[] message = commit.getLogMessage().getBytes(
+                    StandardCharsets.UTF_8);
+            ByteBuffer record = record(commit, messages.size(),
+                    message.length);
+            records.write(record.array(), 0, record.limit());
+            messages.write(message, 0, message.length);
+        }
+        writeContents(MESSAGES_FILE, messages.toByteArray());
+        writeContents(CATALOG_FILE, records.toByteArray());
+    }
+
+    /** Return the record of COMMIT, whose message of LENGTH bytes is at
+     *  MESSAGEOFFSET. */
+    private static ByteBuffer record(Commit commit, long messageOffset,
+                                     int length) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(key(commit.getID().substring(5)));
+        record.put(key(commit.getParentsID()[0]));
+        record.put(key(commit.getParentsID()[1]));
+        record.putLong(commit.getTimeMillis());
+        record.putInt(commit.getTimeZoneOffset());
+        record.putLong(messageOffset);
+        record.putInt(length);
+        return record.flip();
+    }
+
+    /** Return the raw bytes of UID, or zeros if UID is null. */
+    private static byte[] key(String uid) {
+        byte[] key = new byte[KEY_SIZE];
+        for (int i = 0; uid != null && i < KEY_SIZE; i += 1) {
+            key[i] = (byte) Integer.parseInt(uid.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return key;
+    }
+
+    /** Return the UID whose raw bytes are in BUFFER at POS, or null if they
+     *  are all zero. */
+    private static String uidAt(ByteBuffer buffer, int pos) {
+        byte[] key = new byte[KEY_SIZE];
+        buffer.get(pos, key);
+        return Arrays.equals(key, new byte[KEY_SIZE]) ? null
+                : ObjectStore.toHex(key);
+    }
+
+    /** Append DATA to FILE. */
+    private static void append(File file, ByteBuffer data) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(file);
+    }
+
+    /** Cut FILE down to SIZE bytes. */
+    private static void truncate(File file, long size) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            out.truncate(size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return FILE mapped read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
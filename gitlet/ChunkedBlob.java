@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Contents of large files, split into content-defined chunks. Contents of
+ *  at least THRESHOLD bytes are cut wherever a rolling gear hash of the
+ *  bytes read so far matches a mask (FastCDC), so an edit only changes
+ *  the chunks around it. Each chunk is stored as an object named by its
+ *  own SHA-1 UID, shared between all versions and files that contain it.
+ *  The contents themselves are represented by a manifest object, PREFIX
+ *  followed by the contents' UID, listing "[CHUNK UID] [LENGTH]" lines in
+ *  order.
+ *  @author Thu Nguyen
+ */
+class ChunkedBlob {
+    /** Beginning of the ID of a manifest, followed by the UID of the
+     *  contents it describes. */
+    static final String PREFIX = "chnk_";
+    /** Size from which contents are chunked. */
+    static final long THRESHOLD = 1 << 20;
+    /** Smallest chunk, except at the end of the contents. */
+    static final int MIN_SIZE = 2 * 1024;
+    /** Size chunks are normalized around. */
+    static final int AVG_SIZE = 8 * 1024;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 64 * 1024;
+    /** Mask with more bits than the average needs, used before AVG_SIZE so
+     *  that cuts are less likely. */
+    private static final long MASK_SMALL = 0x0003590703530000L;
+    /** Mask with fewer bits than the average needs, used after AVG_SIZE so
+     *  that cuts are more likely. */
+    private static final long MASK_LARGE = 0x0000d90003530000L;
+    /** Random value added to the hash for each byte value. Fixed, so that
+     *  every repository cuts identical contents identically. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Return the ID of the manifest of contents with CONTENTID. */
+    static String manifestId(String contentId) {
+        return PREFIX + contentId;
+    }
+
+    /** Return whether ID is the ID of a manifest. */
+    static boolean isManifestId(String id) {
+        return id.startsWith(PREFIX) && id.length() == PREFIX.length()
+                + UID_LENGTH;
+    }
+
+    /** Store the contents of SOURCE as chunks plus a manifest, writing only
+     *  chunks not already stored, and return the contents' UID. SOURCE is
+     *  read once, as a stream, holding at most MAX_SIZE bytes of it. */
+    static String ingest(File source) {
+        MessageDigest whole;
+        try {
+            whole = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+        StringBuilder manifest = new StringBuilder();
+        byte[] buffer = new byte[MAX_SIZE];
+        int filled = 0;
+        try (InputStream in = new DigestInputStream(
+                Files.newInputStream(source.toPath()), whole)) {
+            boolean eof = false;
+            while (!eof || filled > 0) {
+                while (!eof && filled < MAX_SIZE) {
+                    int n = in.read(buffer, filled, MAX_SIZE - filled);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        filled += n;
+                    }
+                }
+                int cut = cutPoint(buffer, filled);
+                byte[] chunk = Arrays.copyOf(buffer, cut);
+                String chunkId = sha1(chunk);
+                if (!ObjectStore.exists(chunkId)) {
+                    ObjectStore.write(chunkId, chunk);
+                }
+                manifest.append(chunkId).append(' ').append(cut)
+                        .append('\n');
+                System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+                filled -= cut;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String contentId = ObjectStore.toHex(whole.digest());
+        if (!ObjectStore.exists(manifestId(contentId))) {
+            ObjectStore.write(manifestId(contentId), manifest.toString());
+        }
+        return contentId;
+    }
+
+    /** Return the length of the chunk at the start of the first N bytes of
+     *  DATA, which are the rest of the contents if N < MAX_SIZE. */
+    static int cutPoint(byte[] data, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(n, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return a stream of the contents with CONTENTID, reassembled by
+     *  streaming their chunks in order, or null if they are not stored
+     *  as chunks. */
+    static InputStream open(String contentId) {
+        InputStream manifest = ObjectStore.open(manifestId(contentId));
+        if (manifest == null) {
+            return null;
+        }
+        BufferedReader lines = new BufferedReader(new InputStreamReader(
+                manifest, StandardCharsets.UTF_8));
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            /** The next line of the manifest, or null at its end. */
+            private String _next = readLine(lines);
+
+            @Override
+            public boolean hasMoreElements() {
+                return _next != null;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunkId = _next.substring(0, UID_LENGTH);
+                _next = readLine(lines);
+                return ObjectStore.open(chunkId);
+            }
+        });
+    }
+
+    /** Write the contents with CONTENTID to OUT chunk by chunk, and return
+     *  whether they are stored as chunks. A missing chunk is an error. */
+    static boolean copyTo(String contentId, FileChannel out) {
+        InputStream manifest = ObjectStore.open(manifestId(contentId));
+        if (manifest == null) {
+            return false;
+        }
+        BufferedReader lines = new BufferedReader(new InputStreamReader(
+                manifest, StandardCharsets.UTF_8));
+        for (String line = readLine(lines); line != null;
+             line = readLine(lines)) {
+            if (!ObjectStore.copyTo(line.substring(0, UID_LENGTH), out)) {
+                throw error("Chunk %s is missing.",
+                        line.substring(0, UID_LENGTH));
+            }
+        }
+        return true;
+    }
+
+    /** Return the next line of READER, closing it at the end. */
+    private static String readLine(BufferedReader reader) {
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                reader.close();
+            }
+            return line;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Blob.*;
 import static gitlet.Commit.*;
@@ -29,55 +42,72 @@ class Command {
      *  commit.
      *  File name is the "[commit's ID].txt". File's content is serialized
      *  commit object.
-     *  Tracking branches and its current head (by ID) by logging into
-     *  "branch_head.txt", i.e. [BRANCH_NAME]:[COMMIT_ID].
+     *  Tracking branches and its current head (by ID) in one file per
+     *  branch under .gitlet/refs (see Refs).
      *  ARGS is the inputted parameter. */
     static void doInit(String[] args) {
         checkOperands(args.length, 1);
         new File(DOT_GITLET_DIR.toString()).mkdir();
         new File(OBJECTS_DIR.toString()).mkdir();
+        writeContents(FORMAT_FILE, ObjectStore.FANOUT_FEATURE + "\n"
+                + ObjectStore.ZLIB_FEATURE + "\n");
         Commit commit = new Commit();
-        writeContents(BRANCH_HEAD_FILE, "master:"
-                + commit.getID().substring(5) + "\n");
-        writeContents(CURRENT_BRANCH, "master");
+        Refs.update("master", commit.getID().substring(5));
+        Refs.setCurrent("master");
     }
 
-    /** Adds a copy of the file as it currently exists to the staging area.
-     *  The staging area is in .gitlet. Staging an already-staged file
+    /** Adds a copy of each file as it currently exists to the staging
+     *  area. The staging area is in .gitlet. Staging an already-staged file
      *  overwrites the previous entry in the staging area with the new
-     *  contents.
+     *  contents. Operands may be files, directories (every file under
+     *  them, "." for all) or globs (see WorkTree.matching); all the files
+     *  named are hashed in one batch (see StatCache.hashAll), and only
+     *  contents not yet stored are copied into .gitlet.
      *
-     *  If the current working version of the file is identical to the
+     *  If the current working version of a file is identical to the
      *  version in the current commit, do not stage it to be added, and
      *  remove it from the staging area if it is already there. If the
      *  file had been marked to be removed (gitlet rm), delete that mark.
-     *  Tracking staging area (files to add) in "add.txt" using blob id.
+     *  Tracking staging area (files to add) in "add.txt" using blob id,
+     *  written once however many files are added.
      *  ARGS is the inputted parameter. */
     static void doAdd(String[] args) {
-        checkOperands(args.length, 2);
-        Path toAddFilePath = Paths.get(WORK_DIR_STR, args[1]);
-        if (Files.notExists(toAddFilePath)) {
-            throw error("File does not exist.");
+        if (args.length < 2) {
+            throw error("Incorrect operands.");
         }
-        Blob blob = new Blob(args[1], toAddFilePath.toFile());
-        HashSet<String> rmStageHash = readFileLines(RM_STAGE_FILE);
-        if (rmStageHash.contains(args[1])) {
-            rmStageHash.remove(args[1]);
-            writeContents(RM_STAGE_FILE, String.join("\n",  rmStageHash));
-            return;
+        TreeSet<String> fileNames = WorkTree.matching(
+                Arrays.asList(args).subList(1, args.length));
+        if (fileNames == null) {
+            throw error("File does not exist.");
         }
-        HashSet<String> updateFileLines = readFileLines(ADD_STAGE_FILE);
+        Map<String, String> uids = StatCache.hashAll(
+                new ArrayList<>(fileNames));
+        HashSet<String> rmStage = readFileLines(RM_STAGE_FILE);
+        HashMap<String, String> addStage = getBlobsNameMapId(
+                readFileLinesAsArray(ADD_STAGE_FILE));
         HashSet<String> currentHeadCommit = getBlobsId(getCommit(
                 getCurrentBranchAndHeadID()[1]).getBlobIDArray());
-        if (currentHeadCommit.contains(blob.getID())) {
-            updateFileLines.remove(blob.getFileName());
-            writeContents(ADD_STAGE_FILE, String.join(
-                    "\n", updateFileLines));
-            return;
+        boolean rmChanged = false, addChanged = false;
+        for (String fileName : fileNames) {
+            String uid = uids.get(fileName);
+            if (rmStage.remove(fileName)) {
+                rmChanged = true;
+            } else if (currentHeadCommit.contains(fileName + uid)) {
+                addChanged |= addStage.remove(fileName) != null;
+            } else {
+                String blobId = isStored(uid) ? fileName + uid
+                        : new Blob(fileName, join(WORK_DIR_STR, fileName))
+                                .getID();
+                addChanged |= !blobId.equals(addStage.put(fileName, blobId));
+            }
+        }
+        if (rmChanged) {
+            writeContents(RM_STAGE_FILE, String.join("\n", rmStage));
+        }
+        if (addChanged) {
+            writeContents(ADD_STAGE_FILE, String.join("\n",
+                    addStage.values()));
         }
-        updateFileLines.add(blob.getID());
-        writeContents(ADD_STAGE_FILE, String.join(
-                "\n", String.join("\n", updateFileLines)));
     }
 
     /** Saves a snapshot of certain files in the current commit and
@@ -92,7 +122,9 @@ class Command {
      *  it got from its parent. A commit will save and start tracking any
      *  files that were staged but weren't tracked by its parent. Finally,
      *  files tracked in the current commit may be untracked in the new
-     *  commit as a result of the rm command. ARGS is the inputted parameter. */
+     *  commit as a result of the rm command, or because a staged file
+     *  replaces the directory holding them or lies in a directory that
+     *  replaces them. ARGS is the inputted parameter. */
     static void doCommit(String[] args) {
         checkOperands(args.length, 2);
         boolean hasAddStage = Files.exists(ADD_STAGE_FILE.toPath());
@@ -110,10 +142,12 @@ class Command {
         HashSet<String> rm = readFileLines(RM_STAGE_FILE);
         String[] branchHeadID = getCurrentBranchAndHeadID();
         Commit headCommit = getCommit(branchHeadID[1]);
+        TreeSet<String> staged = new TreeSet<>(add.keySet());
         for (String parentBlobId : headCommit.getBlobIDArray()) {
             String parentBlobName = getBlobFileName(parentBlobId);
             if (!add.containsKey(parentBlobName)
-                    && (!hasRmStage || !rm.contains(parentBlobName))) {
+                    && (!hasRmStage || !rm.contains(parentBlobName))
+                    && !WorkTree.shadowed(parentBlobName, staged)) {
                 blobsToCommit.add(parentBlobId);
             }
         }
@@ -121,6 +155,7 @@ class Command {
         commit = new Commit(args[1],
                 blobsToCommit.toArray(new String[blobsToCommit.size()]),
                 branchHeadID[1]);
+        MessageIndex.add(commit.getID().substring(5), args[1]);
         updateHeadOfBranch(branchHeadID[0], commit.getID());
         if (hasAddStage) {
             ADD_STAGE_FILE.delete();
@@ -137,22 +172,25 @@ class Command {
      *  parameter. */
     static void doRm(String[] args) {
         checkOperands(args.length, 2);
+        String fileName = WorkTree.nameOf(args[1]);
+        if (fileName == null) {
+            throw error("No reason to remove the file.");
+        }
         Commit headCommit = getCommit(getCurrentBranchAndHeadID()[1]);
         HashMap<String, String> addBlobs = getBlobsNameMapId(
                 readFileLinesAsArray(ADD_STAGE_FILE));
         boolean fileTracked = false;
-        if (addBlobs.containsKey(args[1])) {
+        if (addBlobs.containsKey(fileName)) {
             fileTracked = true;
-            addBlobs.remove(args[1]);
+            addBlobs.remove(fileName);
             writeContents(ADD_STAGE_FILE, String.join("\n", addBlobs.values()));
         }
         for (String blobId : headCommit.getBlobIDArray()) {
             String blobName = getBlobFileName(blobId);
-            if (blobName.compareTo(args[1]) == 0) {
+            if (blobName.compareTo(fileName) == 0) {
                 fileTracked = true;
                 addLineToFile(RM_STAGE_FILE, blobName);
-                restrictedDelete(Paths.get(
-                        WORK_DIR_STR, args[1]).toString());
+                deleteWorkingFile(fileName);
             }
         }
         if (!fileTracked) {
@@ -190,51 +228,80 @@ class Command {
         }
     }
 
-    /** Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter. ARGS is the inputted
-     * parameter. */
+    /** Like log, except displays information about all commits ever
+     *  made, newest first, streamed from the commit catalog (Catalog).
+     *  "--limit=[N]" stops after N commits and "--since=[DATE]", with DATE
+     *  as yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss] in local time, stops at the
+     *  first commit made before DATE. ARGS is the inputted parameter. */
     static void doGlobalLog(String[] args) {
-        checkOperands(args.length, 1);
-        for (File file : OBJECTS_DIR.toFile().listFiles()) {
-            String fileName = file.getName();
-            if (isCommitId(fileName)) {
-                String uid = fileName.substring(5);
-                Commit thisCom = getCommit(uid);
-                System.out.println("===");
-                System.out.println("commit " + uid);
-                if (thisCom.getParentsID()[1] != null) {
-                    System.out.println("Merge: "
-                            + thisCom.getParentsID()[0].substring(0, 7) + " "
-                            + thisCom.getParentsID()[1].substring(0, 7));
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        for (int i = 1; i < args.length; i += 1) {
+            try {
+                if (args[i].startsWith("--limit=")) {
+                    limit = Integer.parseInt(args[i].substring(8));
+                } else if (args[i].startsWith("--since=")) {
+                    since = parseDate(args[i].substring(8));
+                } else {
+                    throw error("Incorrect operands.");
                 }
-                System.out.println("Date: " + thisCom.getTimeStamp());
-                System.out.println(thisCom.getLogMessage());
-                System.out.println();
+            } catch (NumberFormatException | DateTimeParseException excp) {
+                throw error("Incorrect operands.");
             }
         }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        Catalog.newest(limit, since, entry -> {
+            out.println("===");
+            out.println("commit " + entry.getUID());
+            if (entry.getParentsID()[1] != null) {
+                out.println("Merge: "
+                        + entry.getParentsID()[0].substring(0, 7) + " "
+                        + entry.getParentsID()[1].substring(0, 7));
+            }
+            out.println("Date: " + entry.getTimeStamp());
+            out.println(entry.getLogMessage());
+            out.println();
+        });
+        out.flush();
+    }
+
+    /** Return the time in milliseconds of DATE, given as yyyy-MM-dd or
+     *  yyyy-MM-ddTHH:mm[:ss] in the default time zone. */
+    static long parseDate(String date) {
+        LocalDateTime time = date.contains("T") ? LocalDateTime.parse(date)
+                : LocalDate.parse(date).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 
     /** Prints out the ids of all commits that have the given commit message,
      *  one per line. If there are multiple such commits, it prints the ids
      *  out on separate lines. The commit message is a single operand; to
      *  indicate a multiword message, put the operand in quotation marks,
-     *  as for the commit command. ARGS is the inputted parameter. */
+     *  as for the commit command. With "--substring" or "--regex" before
+     *  it, the operand is instead text or a regular expression that
+     *  messages must contain. Commits are looked up in the message index
+     *  (MessageIndex), oldest first. ARGS is the inputted parameter. */
     static void doFind(String[] args) {
-        checkOperands(args.length, 2);
-        boolean commitNotExist = true;
-        for (File file : OBJECTS_DIR.toFile().listFiles()) {
-            String fileName = file.getName();
-            if (isCommitId(fileName)) {
-                String uid = fileName.substring(5);
-                if (getCommit(uid).getLogMessage().compareTo(args[1]) == 0) {
-                    commitNotExist = false;
-                    System.out.println(uid);
-                }
+        List<String> found;
+        if (args.length == 3 && args[1].equals("--substring")) {
+            found = MessageIndex.findSubstring(args[2]);
+        } else if (args.length == 3 && args[1].equals("--regex")) {
+            try {
+                found = MessageIndex.findRegex(Pattern.compile(args[2]));
+            } catch (PatternSyntaxException excp) {
+                throw error("Invalid regular expression.");
             }
+        } else {
+            checkOperands(args.length, 2);
+            found = MessageIndex.findExact(args[1]);
         }
-        if (commitNotExist) {
+        if (found.isEmpty()) {
             throw error("Found no commit with that message.");
         }
+        for (String uid : found) {
+            System.out.println(uid);
+        }
     }
 
     /** Displays all branches that currently exist, and marks the "current"
@@ -242,20 +309,17 @@ class Command {
      *  untracking. */
     static void doStatus(String[] args) {
         checkOperands(args.length, 1);
-        String[] branchesAndHead = readFileLinesAsArray(BRANCH_HEAD_FILE);
         String[] stagedBlobIds = readFileLinesAsArray(ADD_STAGE_FILE);
         String[] rmBlobIds = readFileLinesAsArray(RM_STAGE_FILE);
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
-        Arrays.sort(branchesAndHead);
+        String currentBranch = Refs.current();
         Arrays.sort(stagedBlobIds);
         Arrays.sort(stagedBlobIds);
         System.out.println("=== Branches ===");
-        for (String line : branchesAndHead) {
-            String branch = line.split(":")[0];
+        for (String branch : Refs.branches()) {
             if (branch.compareTo(currentBranch) == 0) {
                 System.out.print("*");
             }
-            System.out.println(line.split(":")[0]);
+            System.out.println(branch);
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
@@ -290,7 +354,7 @@ class Command {
                 throw error("No need to checkout the current branch.");
             }
             revertFileToCommit(getCommit(getBranchHeadID(args[1])));
-            writeContents(CURRENT_BRANCH, args[1]);
+            Refs.setCurrent(args[1]);
             return true;
         }
         return false;
@@ -310,10 +374,11 @@ class Command {
             }
             String commitID = getCurrentBranchAndHeadID()[1];
             Commit commit = getCommit(commitID);
-            if (!hasFile(args[2], commit)) {
+            String fileName = WorkTree.nameOf(args[2]);
+            if (fileName == null || !hasFile(fileName, commit)) {
                 throw error("File does not exist in that commit.");
             }
-            checkOutFilesOverwrite(args[2], commit);
+            checkOutFilesOverwrite(fileName, commit);
             return true;
         }
         return false;
@@ -339,10 +404,11 @@ class Command {
             if (commit == null) {
                 throw error("No commit with that id exists.");
             }
-            if (!hasFile(args[3], commit)) {
+            String fileName = WorkTree.nameOf(args[3]);
+            if (fileName == null || !hasFile(fileName, commit)) {
                 throw error("File does not exist in that commit.");
             }
-            checkOutFilesOverwrite(args[3], commit);
+            checkOutFilesOverwrite(fileName, commit);
             return true;
         }
         return false;
@@ -388,13 +454,10 @@ class Command {
      *  ARGS is the parameter. */
     static void doBranch(String[] args) {
         checkOperands(args.length, 2);
-        for (String line : readFileLinesAsArray(BRANCH_HEAD_FILE)) {
-            if (line.split(":")[0].compareTo(args[1]) == 0) {
-                throw error("A branch with that name already exists.");
-            }
+        if (hasBranch(args[1])) {
+            throw error("A branch with that name already exists.");
         }
-        addLineToFile(BRANCH_HEAD_FILE, args[1] + ":"
-                + getCurrentBranchAndHeadID()[1]);
+        Refs.update(args[1], getCurrentBranchAndHeadID()[1]);
     }
 
     /** Deletes the branch with the given name. This only means to delete the
@@ -403,24 +466,12 @@ class Command {
      *  ARGS is the parameter. */
     static void doRmBranch(String[] args) {
         checkOperands(args.length, 2);
-        if (Files.exists(BRANCH_HEAD_FILE.toPath())) {
-            String branchHeadToRemove = "";
-            HashSet<String> branchHeadLines = readFileLines(BRANCH_HEAD_FILE);
-            if (args[1].compareTo(readContentsAsString(CURRENT_BRANCH)) == 0) {
-                throw error("Cannot remove the current branch.");
-            }
-            for (String line: branchHeadLines) {
-                String[] branchAndHead = line.split(":");
-                if (branchAndHead[0].compareTo(args[1]) == 0) {
-                    branchHeadToRemove = line;
-                }
-            }
-            if (branchHeadToRemove.length() < 1) {
-                throw error("A branch with that name does not exist.");
-            }
-            branchHeadLines.remove(branchHeadToRemove);
-            writeContents(BRANCH_HEAD_FILE, String.join("\n", branchHeadLines));
+        if (args[1].compareTo(Refs.current()) == 0) {
+            throw error("Cannot remove the current branch.");
+        } else if (!hasBranch(args[1])) {
+            throw error("A branch with that name does not exist.");
         }
+        Refs.delete(args[1]);
     }
 
     /** Checks out all the files tracked by the given commit. Removes tracked
@@ -444,6 +495,105 @@ class Command {
         updateHeadOfBranch(getCurrentBranchAndHeadID()[0], commitID);
     }
 
+    /** Consolidates every loose object into the repository's pack and its
+     *  sorted index, so later reads are served from one memory-mapped file.
+     *  Objects written afterwards stay loose until the next repack.
+     *  ARGS is the parameter. */
+    static void doRepack(String[] args) {
+        checkOperands(args.length, 1);
+        Pack.repack();
+    }
+
+    /** Deletes every object that no branch or staged file can reach, such
+     *  as blobs added but never committed and commits abandoned by reset
+     *  or rm-branch. Objects written within the grace period, two weeks
+     *  unless given as "--grace=[SECONDS]", are kept. ARGS is the
+     *  parameter. */
+    static void doGc(String[] args) {
+        long grace = GarbageCollector.GRACE;
+        if (args.length == 2 && args[1].startsWith("--grace=")) {
+            try {
+                grace = Long.parseLong(args[1].substring(8)) * 1000;
+            } catch (NumberFormatException excp) {
+                throw error("Incorrect operands.");
+            }
+        } else {
+            checkOperands(args.length, 1);
+        }
+        int deleted = GarbageCollector.collect(grace);
+        System.out.println("Removed " + deleted + " unreachable objects.");
+    }
+
+    /** Verifies that every object matches its ID and that every object a
+     *  commit, branch or staged file refers to exists, printing one
+     *  tab-separated line per problem (see Fsck). Returns the exit status,
+     *  1 if there are any problems, so that scripts can tell, else 0. ARGS
+     *  is the parameter. */
+    static int doFsck(String[] args) {
+        checkOperands(args.length, 1);
+        List<String> problems = Fsck.check();
+        for (String problem : problems) {
+            System.out.println(problem);
+        }
+        return problems.isEmpty() ? 0 : 1;
+    }
+
+    /** Runs a watcher of the working directory until stopped, so that
+     *  status and the untracked-file checks of checkout, reset and merge
+     *  only look at the files changed since they last ran (see Watcher).
+     *  With --stop, stops the running watcher instead. ARGS is the
+     *  parameter. */
+    static void doWatch(String[] args) {
+        if (args.length == 2 && args[1].equals("--stop")) {
+            Watcher.requestStop();
+            return;
+        }
+        checkOperands(args.length, 1);
+        Watcher.run();
+    }
+
+    /** Rewrites every commit still stored with Java serialization, as
+     *  repositories made before the current commit format store them, in
+     *  that format, along with their descendants, and moves branch heads to
+     *  the rewritten commits. Their IDs change, since an ID is the hash of
+     *  the encoding. The old commits are deleted, repacking if any of them
+     *  were packed. ARGS is the parameter. */
+    static void doConvertCommits(String[] args) {
+        checkOperands(args.length, 1);
+        HashMap<String, String> converted = new HashMap<>();
+        HashSet<String> old = new HashSet<>();
+        for (String id : ObjectStore.listIds()) {
+            if (!isCommitId(id)) {
+                continue;
+            }
+            Commit.convert(id.substring(5), converted);
+            if (!converted.get(id.substring(5)).equals(id.substring(5))) {
+                old.add(id);
+            }
+        }
+        if (old.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, String> head : Refs.heads().entrySet()) {
+            updateHeadOfBranch(head.getKey(), converted.get(head.getValue()));
+        }
+        Durability.barrier();
+        CommitGraph.invalidate();
+        CommitIndex.invalidate();
+        MessageIndex.invalidate();
+        Catalog.invalidate();
+        boolean packed = false;
+        for (String id : old) {
+            packed |= Pack.current() != null && Pack.current().contains(id);
+        }
+        if (packed) {
+            Pack.repack(old);
+        } else {
+            ObjectStore.deleteLoose(new ArrayList<>(old));
+        }
+        System.out.println("Converted " + old.size() + " commits.");
+    }
+
     /** Merges files from the given branch into the current branch.
      *  ARGS is the parameter. */
     static void doMerge(String[] args) {
@@ -475,12 +625,16 @@ class Command {
                 givenBranchHead, args[1]);
         HashMap<String, String> splitPtBlobNameMapID = getBlobsNameMapId(
                 splitPoint.getBlobIDArray());
+        stageUnchanged(splitPoint, currCommit, branchCommit,
+                splitPtBlobNameMapID, currBlobNameMapID, branchBlobNameMapID);
         merge(currBlobNameMapID, givenBranchHead, splitPtBlobNameMapID,
                 branchBlobNameMapID);
         newCommit = new Commit("Merged " + args[1]
                 + " into " + currBranchAndHead[0] + ".",
                 readFileLinesAsArray(ADD_STAGE_FILE),
                 currBranchAndHead[1], givenBranchHead);
+        MessageIndex.add(newCommit.getID().substring(5),
+                newCommit.getLogMessage());
         updateHeadOfBranch(currBranchAndHead[0], newCommit.getID());
         if (Files.exists(ADD_STAGE_FILE.toPath())) {
             ADD_STAGE_FILE.delete();
@@ -1,16 +1,23 @@
 package gitlet;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
 
 import static gitlet.Utils.*;
-import static gitlet.MainUtils.*;
 
 /** Combinations of log messages, other metadata (commit date, author,
  *  etc.), and references to parent commits. The repository also
@@ -21,11 +28,21 @@ import static gitlet.MainUtils.*;
  *  @author Thu Nguyen
  **/
 public class Commit implements Serializable {
+    /** Serialization version of commits written by Java serialization
+     *  before FORMAT_VERSION, kept so that they can still be read. */
+    private static final long serialVersionUID = 7710397530877068964L;
     /** DateFormat. */
     static final DateFormat DF = new SimpleDateFormat(
             "EEE MMM d HH:mm:ss yyyy Z");
-    /** Array of Blob ID's. */
+    /** Version byte beginning every encoded commit. Commits of version 1
+     *  list their blob IDs themselves; later ones refer to a root tree. */
+    static final int FORMAT_VERSION = 2;
+    /** Array of Blob ID's, each mapping a file name to the contents
+     *  object tracked under it. Read from my tree when first needed. */
     private String[] _blobIdArray;
+    /** UID of my root tree (see Tree), or null for commits written
+     *  before trees. */
+    private transient String _treeId;
     /** List of ID of parents of the commit (There can only be 2 parents
      *  in Gitlet). This will be used for merges. */
     private String[] _parentsID;
@@ -36,33 +53,24 @@ public class Commit implements Serializable {
     /** Unique ID generated by SHA-1. Differentiated from other object
      *  types by their 5-character beginning "comm_" (for commit). */
     private String _id;
+    /** Time of the commit, in milliseconds since the epoch. */
+    private transient long _millis;
+    /** Offset from UTC, in minutes, of the time zone the commit was made
+     *  in. */
+    private transient int _offset;
 
     /** Construct a default commit with no files and has message
-     *  "initial commit". */
+     *  "initial commit". Its time is the epoch in UTC wherever it is
+     *  made, so all repositories share it. */
     public Commit() {
-        _blobIdArray = new String[0];
-        _parentsID = new String[2];
-        _parentsID[0] = _parentsID[1] = null;
-        _logMessage = "initial commit";
-        _timestamp = DF.format(new Date(0));
-        byte[] serialized = serialize(this);
-        _id = "comm_" + sha1(serialized);
-        writeContents(join(OBJECTS_DIR.toString(), _id), serialized);
+        this("initial commit", new String[0], null, null, 0, 0);
     }
 
     /** Construct a commit with files from add staging area, and has
      *  message LOGMESSAGE. Parent IS PARENTID. Time set to current
      *  time. BLOBIDS HAS FORM: [FILENAME]+[UID].txt. */
     public Commit(String logMessage, String[] blobIDs, String parentID) {
-        _parentsID = new String[2];
-        _parentsID[0] = parentID;
-        _parentsID[1] = null;
-        _blobIdArray = blobIDs;
-        _logMessage = logMessage;
-        _timestamp = DF.format(new Date());
-        byte[] serialized = serialize(this);
-        _id = "comm_" + sha1(serialized);
-        writeContents(join(OBJECTS_DIR.toString(), _id), serialized);
+        this(logMessage, blobIDs, parentID, null);
     }
 
     /** Construct a commit with files from add staging area, and has
@@ -70,15 +78,201 @@ public class Commit implements Serializable {
      *  set to current time. BLOBIDS HAS FORM: [FILENAME]+[UID]. */
     public Commit(String logMessage, String[] blobIDs, String parentID1,
                   String parentID2) {
-        _parentsID = new String[2];
-        _parentsID[0] = parentID1;
-        _parentsID[1] = parentID2;
-        _blobIdArray = blobIDs;
+        this(logMessage, blobIDs, parentID1, parentID2,
+                System.currentTimeMillis());
+    }
+
+    /** Construct a commit as above, made at MILLIS in the default time
+     *  zone. */
+    private Commit(String logMessage, String[] blobIDs, String parentID1,
+                   String parentID2, long millis) {
+        this(logMessage, blobIDs, parentID1, parentID2, millis,
+                TimeZone.getDefault().getOffset(millis) / 60000);
+    }
+
+    /** Construct a commit with message LOGMESSAGE, files BLOBIDS and
+     *  parents PARENTID1 and PARENTID2 (either may be null), made at MILLIS
+     *  in a time zone OFFSET minutes from UTC, and write it out in the
+     *  encoding of FORMAT_VERSION. */
+    private Commit(String logMessage, String[] blobIDs, String parentID1,
+                   String parentID2, long millis, int offset) {
+        _parentsID = new String[] {parentID1, parentID2};
+        _blobIdArray = blobIDs.clone();
+        Arrays.sort(_blobIdArray);
         _logMessage = logMessage;
-        _timestamp = DF.format(new Date());
-        byte[] serialized = serialize(this);
-        _id = "comm_" + sha1(serialized);
-        writeContents(join(OBJECTS_DIR.toString(), _id), serialized);
+        _millis = millis;
+        _offset = offset;
+        _timestamp = formatTimestamp(millis, offset);
+        _treeId = Tree.write(_blobIdArray);
+        byte[] encoded = encode();
+        _id = "comm_" + sha1(encoded);
+        ObjectStore.write(_id, encoded);
+        CommitGraph.add(this);
+        Reachability.add(_id.substring(5));
+        CommitIndex.add(_id.substring(5));
+        Catalog.add(this);
+    }
+
+    /** Return my encoding: FORMAT_VERSION, the number of parents and
+     *  their IDs, my time and time zone offset, my log message, and the
+     *  UID of my root tree. Strings are written as their UTF-8 length
+     *  followed by their bytes. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            int parents = _parentsID[1] != null ? 2
+                    : _parentsID[0] != null ? 1 : 0;
+            out.writeByte(parents);
+            for (int i = 0; i < parents; i += 1) {
+                writeString(out, _parentsID[i]);
+            }
+            out.writeLong(_millis);
+            out.writeInt(_offset);
+            writeString(out, _logMessage);
+            writeString(out, _treeId);
+        } catch (IOException excp) {
+            throw error("Internal error serializing commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the commit encoded as BYTES, which may also be a commit of
+     *  version 1 or one written by Java serialization before either. */
+    static Commit decode(byte[] bytes) {
+        Commit commit;
+        if (isSerialized(bytes)) {
+            commit = deserialize(bytes, Commit.class);
+            try {
+                Date date = new SimpleDateFormat(
+                        "EEE MMM d HH:mm:ss yyyy Z").parse(commit._timestamp);
+                commit._millis = date.getTime();
+                String zone = commit._timestamp.substring(
+                        commit._timestamp.length() - 5);
+                int minutes = Integer.parseInt(zone.substring(1, 3)) * 60
+                        + Integer.parseInt(zone.substring(3));
+                commit._offset = zone.charAt(0) == '-' ? -minutes : minutes;
+            } catch (ParseException | NumberFormatException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else {
+            commit = new Commit(bytes);
+        }
+        commit._id = "comm_" + sha1(bytes);
+        return commit;
+    }
+
+    /** A commit decoded from BYTES in the encoding of FORMAT_VERSION or
+     *  of version 1, which lists the number of blob IDs and the IDs in
+     *  place of the tree. */
+    private Commit(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            int version = in.readByte();
+            if (version != 1 && version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("unknown commit format");
+            }
+            _parentsID = new String[2];
+            int parents = in.readByte();
+            for (int i = 0; i < parents; i += 1) {
+                _parentsID[i] = readString(in);
+            }
+            _millis = in.readLong();
+            _offset = in.readInt();
+            _logMessage = readString(in);
+            if (version == FORMAT_VERSION) {
+                _treeId = readString(in);
+            } else {
+                _blobIdArray = new String[in.readInt()];
+                for (int i = 0; i < _blobIdArray.length; i += 1) {
+                    _blobIdArray[i] = readString(in);
+                }
+            }
+            _timestamp = formatTimestamp(_millis, _offset);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return whether BYTES were written by Java serialization, which
+     *  always begins with the stream magic number 0xACED. */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == (byte) 0xac
+                && bytes[1] == (byte) 0xed;
+    }
+
+    /** Write the length of STR in UTF-8 and then its bytes to OUT. */
+    private static void writeString(DataOutputStream out, String str)
+        throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a string written to IN by writeString. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return MILLIS formatted as DF does, in the time zone OFFSET minutes
+     *  from UTC. The initial commit, recorded at the epoch in UTC so that
+     *  every repository shares it, is shown in the default time zone
+     *  instead, as it always was. */
+    static String formatTimestamp(long millis, int offset) {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE MMM d HH:mm:ss yyyy Z");
+        format.setTimeZone(millis == 0 ? TimeZone.getDefault()
+                : new SimpleTimeZone(offset * 60000, ""));
+        return format.format(new Date(millis));
+    }
+
+    /** Return a copy of the commit with ID, and of every ancestor of it,
+     *  in the encoding of FORMAT_VERSION, recording each converted ID in
+     *  CONVERTED (a map from old to new ID without "comm_"). Return the
+     *  ID of the copy of ID. Commits already encoded so whose parents are
+     *  unchanged are kept; the rest are given trees. */
+    static String convert(String id, HashMap<String, String> converted) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String uid = stack.peek();
+            if (converted.containsKey(uid)) {
+                stack.pop();
+                continue;
+            }
+            byte[] bytes = ObjectStore.read("comm_" + uid);
+            Commit commit = decode(bytes);
+            boolean ready = true;
+            for (String parent : commit._parentsID) {
+                if (parent != null && !converted.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            stack.pop();
+            boolean changed = bytes[0] != FORMAT_VERSION;
+            String[] parents = new String[2];
+            for (int i = 0; i < 2; i += 1) {
+                if (commit._parentsID[i] != null) {
+                    parents[i] = converted.get(commit._parentsID[i]);
+                    changed |= !parents[i].equals(commit._parentsID[i]);
+                }
+            }
+            if (!changed) {
+                converted.put(uid, uid);
+                continue;
+            }
+            Commit copy = new Commit(commit._logMessage,
+                    commit.getBlobIDArray(), parents[0], parents[1],
+                    commit._millis, commit._offset);
+            converted.put(uid, copy.getID().substring(5));
+        }
+        return converted.get(id);
     }
 
     /** Return my id. */
@@ -86,11 +280,37 @@ public class Commit implements Serializable {
         return this._id;
     }
 
-    /** Return my array of blob ID's. */
+    /** Return my array of blob ID's, sorted. */
     public String[] getBlobIDArray() {
+        if (this._blobIdArray == null) {
+            String[] blobIds = Tree.blobIds(_treeId);
+            Arrays.sort(blobIds);
+            this._blobIdArray = blobIds;
+        }
         return this._blobIdArray;
     }
 
+    /** Return the ID, [FILENAME][CONTENT UID], under which I track
+     *  FILENAME, or null if I do not track it. Only the directories on its
+     *  path are read from my tree, and each is binary searched. */
+    public String getBlobID(String fileName) {
+        if (this._blobIdArray == null) {
+            return Tree.find(_treeId, fileName);
+        }
+        for (String blobId : this._blobIdArray) {
+            if (Blob.getBlobFileName(blobId).equals(fileName)) {
+                return blobId;
+            }
+        }
+        return null;
+    }
+
+    /** Return the UID of my root tree, or null if I was written before
+     *  commits had trees. */
+    public String getTreeID() {
+        return this._treeId;
+    }
+
     /** Return my array of parents' ID. */
     public String[] getParentsID() {
         return this._parentsID;
@@ -105,28 +325,32 @@ public class Commit implements Serializable {
         return this._timestamp;
     }
 
+    /** Return my time in milliseconds since the epoch. */
+    public long getTimeMillis() {
+        return this._millis;
+    }
+
+    /** Return the offset from UTC, in minutes, of my time zone. */
+    public int getTimeZoneOffset() {
+        return this._offset;
+    }
+
     /** Return commit from its TRUNCATEDID. Return null
      *  if commit does not exist. */
     static Commit getCommit(String truncatedId) {
-        if (Files.exists(Paths.get(OBJECTS_DIR.toString(), "comm_"
-                + truncatedId))) {
-            return readObject(join(OBJECTS_DIR.toString(), "comm_"
-                    + truncatedId), Commit.class);
+        byte[] encoded = ObjectStore.read("comm_" + truncatedId);
+        if (encoded == null) {
+            return null;
         }
-        return null;
+        return decode(encoded);
     }
 
     /** Recover and return the UID (ID without "comm_" beginning) from
-     * SHORTENEDID. Return empty string if commit does not exist. */
+     * SHORTENEDID. Return empty string if commit does not exist. It is an
+     * error for SHORTENEDID to abbreviate several commits' UIDs. Resolved
+     * by binary search in the commit index (CommitIndex). */
     static String recoverUID(String shortenedID) {
-        String substringID = "comm_" + shortenedID;
-        for (File file : OBJECTS_DIR.toFile().listFiles()) {
-            String fileName = file.getName();
-            if (isCommitId(fileName) && fileName.contains(substringID)) {
-                return fileName.substring(5);
-            }
-        }
-        return "";
+        return CommitIndex.resolve(shortenedID);
     }
 
     /** Return whether the ID is a commit's ID.
@@ -143,7 +367,8 @@ public class Commit implements Serializable {
     static boolean sameCommit(Commit comm1, Commit comm2) {
         if (comm1 != null && comm2 != null) {
             if (Arrays.equals(comm1._parentsID, comm2._parentsID)
-                    && Arrays.equals(comm1._blobIdArray, comm2._blobIdArray)
+                    && Arrays.equals(comm1.getBlobIDArray(),
+                            comm2.getBlobIDArray())
                     && comm1._logMessage.compareTo(comm2._logMessage) == 0
                     && comm1._timestamp.compareTo(comm2._timestamp) == 0) {
                 return true;
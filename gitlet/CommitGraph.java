@@ -0,0 +1,432 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import static gitlet.Commit.isCommitId;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** The commit graph: a side file, .gitlet/commit-graph, holding the
+ *  parents, time and generation number of every commit, so that history
+ *  can be walked without reading commit objects.
+ *
+ *  The file is a header [MAGIC][VERSION] followed by one fixed-size record
+ *  per commit, [KEY][PARENT 1][PARENT 2][TIME][GENERATION], where KEY is
+ *  the raw SHA-1 of the commit's ID and parents are the positions of
+ *  their records (NONE if absent). Parents always come before their
+ *  children, so new commits are appended as they are made. A commit's
+ *  generation is one more than the largest generation of its parents, so
+ *  that no ancestor of a commit has a generation as large as its own.
+ *  The graph is rebuilt from the object store whenever it is missing, or
+ *  lacks a commit it is asked about. Positions number commits until the
+ *  graph is rebuilt, so the reachability bitmaps over them (see
+ *  Reachability) are deleted along with it.
+ *  @author Thu Nguyen
+ */
+class CommitGraph {
+    /** The commit-graph file. */
+    static final File GRAPH_FILE = join(DOT_GITLET_DIR.toString(),
+            "commit-graph");
+    /** Magic number beginning the file. */
+    static final int MAGIC = 0x43475048;
+    /** Format version of the file. */
+    static final int VERSION = 1;
+    /** Size of the header: magic and version. */
+    static final int HEADER_SIZE = 8;
+    /** Size of a raw SHA-1 key. */
+    static final int KEY_SIZE = 20;
+    /** Size of a record: key, two int parents, long time, int
+     *  generation. */
+    static final int RECORD_SIZE = KEY_SIZE + 4 + 4 + 8 + 4;
+    /** Position standing for no parent. */
+    static final int NONE = -1;
+    /** Mark of commits reached from the first commit of a split point
+     *  search. */
+    private static final int FROM_FIRST = 1;
+    /** Mark of commits reached from the second commit. */
+    private static final int FROM_SECOND = 2;
+    /** Mark of commits below a common ancestor already found. */
+    private static final int STALE = 4;
+
+    /** The graph of this repository, loaded on first use. */
+    private static CommitGraph _current;
+
+    /** Position of each commit, by UID. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+    /** UID of the commit at each position. */
+    private String[] _ids = new String[16];
+    /** First and second parents at each position. */
+    private int[][] _parents = new int[2][16];
+    /** Time at each position, kept for walks ordered by time. */
+    private long[] _times = new long[16];
+    /** Generation at each position. */
+    private int[] _generations = new int[16];
+    /** Number of commits. */
+    private int _count;
+
+    /** Return the commit graph of this repository. */
+    static CommitGraph current() {
+        if (_current == null) {
+            _current = GRAPH_FILE.isFile() ? load() : rebuild();
+        }
+        return _current;
+    }
+
+    /** Delete the commit graph after commits were deleted or replaced, so
+     *  that it is rebuilt when next needed. */
+    static void invalidate() {
+        _current = null;
+        if (GRAPH_FILE.delete()) {
+            Durability.written(GRAPH_FILE);
+        }
+        Reachability.invalidate();
+    }
+
+    /** Return the commit graph of this repository, rebuilt first if it
+     *  lacks any of the commits with UIDS. */
+    static CommitGraph including(Iterable<String> uids) {
+        CommitGraph graph = current();
+        for (String uid : uids) {
+            if (!graph._positions.containsKey(uid)) {
+                return _current = rebuild();
+            }
+        }
+        return graph;
+    }
+
+    /** Return the position of the commit with UID, or null if it is not
+     *  in the graph. */
+    Integer positionOf(String uid) {
+        return _positions.get(uid);
+    }
+
+    /** Return the UID of the commit at POS. */
+    String uidAt(int pos) {
+        return _ids[pos];
+    }
+
+    /** Return the position of the Ith parent (0 or 1) of the commit at
+     *  POS, or NONE. */
+    int parentAt(int i, int pos) {
+        return _parents[i][pos];
+    }
+
+    /** Return the generation of the commit at POS. */
+    int generationAt(int pos) {
+        return _generations[pos];
+    }
+
+    /** Record the newly made COMMIT, appending it to the file. A graph
+     *  that is missing, or lacks a parent of COMMIT, is rebuilt instead,
+     *  which takes in COMMIT since it is already stored. */
+    static void add(Commit commit) {
+        boolean existed = GRAPH_FILE.isFile();
+        CommitGraph graph = current();
+        String uid = commit.getID().substring(5);
+        if (!existed || graph._positions.containsKey(uid)) {
+            return;
+        }
+        int[] parents = new int[2];
+        for (int i = 0; i < 2; i += 1) {
+            String parent = commit.getParentsID()[i];
+            parents[i] = parent == null ? NONE
+                    : graph._positions.getOrDefault(parent, NONE);
+            if (parent != null && parents[i] == NONE) {
+                _current = rebuild();
+                return;
+            }
+        }
+        int pos = graph.append(uid, parents, commit.getTimeMillis());
+        try (FileChannel out = FileChannel.open(GRAPH_FILE.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer record = graph.record(pos);
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(GRAPH_FILE);
+    }
+
+    /** Return the UID of the split point of the commits with UIDs FIRST
+     *  and SECOND: of their latest common ancestors (those that are not
+     *  ancestors of another common ancestor), the one fewest parent steps
+     *  from FIRST, preferring first parents. Return null if they have no
+     *  common ancestor. Only commits with generations above the split
+     *  point's, plus a few below, are visited. */
+    static String splitPoint(String first, String second) {
+        CommitGraph graph = including(Arrays.asList(first, second));
+        Integer a = graph._positions.get(first);
+        Integer b = graph._positions.get(second);
+        if (a == null || b == null) {
+            return null;
+        }
+        ArrayList<Integer> bases = graph.mergeBases(a, b);
+        if (bases.isEmpty()) {
+            return null;
+        }
+        return graph._ids[graph.nearest(a, bases)];
+    }
+
+    /** Return the position among BASES fewest parent steps from the commit
+     *  at POS, an ancestor of them all, preferring first parents. */
+    private int nearest(int pos, ArrayList<Integer> bases) {
+        int lowest = Integer.MAX_VALUE;
+        for (int base : bases) {
+            lowest = Math.min(lowest, _generations[base]);
+        }
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        fringe.add(pos);
+        seen.add(pos);
+        while (!fringe.isEmpty()) {
+            int next = fringe.remove();
+            if (bases.contains(next)) {
+                return next;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = _parents[i][next];
+                if (parent != NONE && _generations[parent] >= lowest
+                        && seen.add(parent)) {
+                    fringe.add(parent);
+                }
+            }
+        }
+        return bases.get(0);
+    }
+
+    /** Return the positions of the latest common ancestors of the commits
+     *  at A and B. Commits are visited in decreasing order of generation,
+     *  marking which of A and B reach them, and the walk stops once every
+     *  commit left to visit is below a common ancestor already found. Each
+     *  commit is queued at most once at a time, and the number of queued
+     *  commits not yet known to be below a common ancestor is kept, so
+     *  deciding when to stop takes constant time. */
+    private ArrayList<Integer> mergeBases(int a, int b) {
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                _generations[x] != _generations[y]
+                ? Integer.compare(_generations[y], _generations[x])
+                : Integer.compare(y, x));
+        HashSet<Integer> queued = new HashSet<>();
+        marks.put(a, FROM_FIRST);
+        marks.merge(b, FROM_SECOND, (x, y) -> x | y);
+        queue.add(a);
+        queued.add(a);
+        if (queued.add(b)) {
+            queue.add(b);
+        }
+        int active = queued.size();
+        ArrayList<Integer> bases = new ArrayList<>();
+        while (active > 0) {
+            int pos = queue.poll();
+            queued.remove(pos);
+            int mark = marks.get(pos);
+            if ((mark & STALE) == 0) {
+                active -= 1;
+            }
+            if ((mark & (FROM_FIRST | FROM_SECOND))
+                    == (FROM_FIRST | FROM_SECOND) && (mark & STALE) == 0) {
+                bases.add(pos);
+                mark |= STALE;
+                marks.put(pos, mark);
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = _parents[i][pos];
+                if (parent == NONE) {
+                    continue;
+                }
+                int old = marks.getOrDefault(parent, 0);
+                int now = old | mark;
+                if (now == old) {
+                    continue;
+                }
+                marks.put(parent, now);
+                if (queued.add(parent)) {
+                    queue.add(parent);
+                    active += (now & STALE) == 0 ? 1 : 0;
+                } else if ((old & STALE) == 0 && (now & STALE) != 0) {
+                    active -= 1;
+                }
+            }
+        }
+        bases.removeIf(base -> bases.stream().anyMatch(other ->
+                !other.equals(base) && isAncestor(base, other)));
+        return bases;
+    }
+
+    /** Return whether the commit at ANCESTOR is an ancestor of the one at
+     *  POS, visiting only commits of higher generation than ANCESTOR. */
+    private boolean isAncestor(int ancestor, int pos) {
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(pos);
+        while (!stack.isEmpty()) {
+            int next = stack.pop();
+            if (next == ancestor) {
+                return true;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = _parents[i][next];
+                if (parent != NONE
+                        && _generations[parent] >= _generations[ancestor]
+                        && seen.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Add the commit with UID, PARENTS and TIME, returning its
+     *  position. */
+    private int append(String uid, int[] parents, long time) {
+        if (_count == _ids.length) {
+            int size = 2 * _count;
+            _ids = Arrays.copyOf(_ids, size);
+            _parents[0] = Arrays.copyOf(_parents[0], size);
+            _parents[1] = Arrays.copyOf(_parents[1], size);
+            _times = Arrays.copyOf(_times, size);
+            _generations = Arrays.copyOf(_generations, size);
+        }
+        int generation = 1;
+        for (int parent : parents) {
+            if (parent != NONE) {
+                generation = Math.max(generation, _generations[parent] + 1);
+            }
+        }
+        _ids[_count] = uid;
+        _parents[0][_count] = parents[0];
+        _parents[1][_count] = parents[1];
+        _times[_count] = time;
+        _generations[_count] = generation;
+        _positions.put(uid, _count);
+        _count += 1;
+        return _count - 1;
+    }
+
+    /** Return the record of the commit at POS, ready to be written. */
+    private ByteBuffer record(int pos) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(fromHex(_ids[pos]));
+        record.putInt(_parents[0][pos]);
+        record.putInt(_parents[1][pos]);
+        record.putLong(_times[pos]);
+        record.putInt(_generations[pos]);
+        return record.flip();
+    }
+
+    /** Return the header of the file. */
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC)
+                .putInt(VERSION).array();
+    }
+
+    /** Return the graph read from the file. A record left incomplete by
+     *  an interrupted append is ignored; a file that is not a commit graph
+     *  is rebuilt. */
+    private static CommitGraph load() {
+        ByteBuffer in = ByteBuffer.wrap(readContents(GRAPH_FILE));
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC
+                || in.getInt() != VERSION) {
+            return rebuild();
+        }
+        CommitGraph graph = new CommitGraph();
+        byte[] key = new byte[KEY_SIZE];
+        while (in.remaining() >= RECORD_SIZE) {
+            in.get(key);
+            int[] parents = {in.getInt(), in.getInt()};
+            long time = in.getLong();
+            in.getInt();
+            if (parents[0] >= graph._count || parents[1] >= graph._count) {
+                return rebuild();
+            }
+            graph.append(ObjectStore.toHex(key), parents, time);
+        }
+        return graph;
+    }
+
+    /** Return a graph of every commit in the object store, written to the
+     *  file in place of the current one. */
+    private static CommitGraph rebuild() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String id : ObjectStore.listIds()) {
+            if (isCommitId(id)) {
+                commits.put(id.substring(5), Commit.getCommit(id.substring(5)));
+            }
+        }
+        CommitGraph graph = new CommitGraph();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        for (String uid : commits.keySet()) {
+            stack.push(uid);
+            while (!stack.isEmpty()) {
+                String next = stack.peek();
+                if (graph._positions.containsKey(next)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = commits.get(next);
+                int[] parents = {NONE, NONE};
+                boolean ready = true;
+                for (int i = 0; i < 2; i += 1) {
+                    String parent = commit.getParentsID()[i];
+                    if (parent == null || !commits.containsKey(parent)) {
+                        continue;
+                    }
+                    Integer pos = graph._positions.get(parent);
+                    if (pos == null) {
+                        stack.push(parent);
+                        ready = false;
+                    } else {
+                        parents[i] = pos;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    graph.append(next, parents, commit.getTimeMillis());
+                }
+            }
+        }
+        if (Files.exists(DOT_GITLET_DIR)) {
+            File tmp = Durability.tempFor(GRAPH_FILE);
+            try (FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                out.write(ByteBuffer.wrap(header()));
+                for (int pos = 0; pos < graph._count; pos += 1) {
+                    ByteBuffer record = graph.record(pos);
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }
+            } catch (IOException excp) {
+                tmp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Durability.commit(tmp, GRAPH_FILE);
+            Reachability.invalidate();
+        }
+        return graph;
+    }
+
+    /** Return the bytes written as hexadecimal in HEX. */
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return bytes;
+    }
+}
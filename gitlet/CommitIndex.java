@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Commit.isCommitId;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Sorted index of commit UIDs, resolving abbreviated UIDs by binary
+ *  search. .gitlet/commit-index is a header [MAGIC][VERSION][COUNT]
+ *  followed by the raw 20-byte SHA-1 of every indexed commit, sorted as
+ *  unsigned bytes. New commits are appended unsorted to
+ *  .gitlet/commit-index.tail, which is scanned in full and merged into
+ *  the sorted file once it holds TAIL_LIMIT commits. Both files are
+ *  rebuilt from the object store when the index is missing, or lacks a
+ *  commit that is looked up.
+ *  @author Thu Nguyen
+ */
+class CommitIndex {
+    /** The sorted index file. */
+    static final File INDEX_FILE = join(DOT_GITLET_DIR.toString(),
+            "commit-index");
+    /** Commits made since the index was last sorted. */
+    static final File TAIL_FILE = join(DOT_GITLET_DIR.toString(),
+            "commit-index.tail");
+    /** Magic number beginning the index. */
+    static final int MAGIC = 0x43494458;
+    /** Format version of the index. */
+    static final int VERSION = 1;
+    /** Size of the header: magic, version, count. */
+    static final int HEADER_SIZE = 12;
+    /** Size of a raw SHA-1 key. */
+    static final int KEY_SIZE = 20;
+    /** Number of commits in the tail at which it is merged into the sorted
+     *  index. */
+    static final int TAIL_LIMIT = 256;
+
+    /** Record the commit with UID, made since the index was last
+     *  written. */
+    static void add(String uid) {
+        if (!INDEX_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        byte[] key = key(uid);
+        boolean full;
+        try (FileChannel out = FileChannel.open(TAIL_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(key);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            full = out.size() >= (long) TAIL_LIMIT * KEY_SIZE;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (full) {
+            write(allKeys());
+            return;
+        }
+        Durability.written(TAIL_FILE);
+    }
+
+    /** Delete the index after commits were deleted or replaced, so that it
+     *  is rebuilt when next needed. */
+    static void invalidate() {
+        for (File file : new File[] {INDEX_FILE, TAIL_FILE}) {
+            if (file.delete()) {
+                Durability.written(file);
+            }
+        }
+    }
+
+    /** Return the UID of the only commit whose UID begins with PREFIX, or
+     *  the empty string if there is none. It is an error for PREFIX to
+     *  begin more than one commit's UID. */
+    static String resolve(String prefix) {
+        if (!prefix.matches("[0-9a-f]{1," + UID_LENGTH + "}")) {
+            return "";
+        }
+        if (!INDEX_FILE.isFile()) {
+            rebuild();
+        }
+        List<String> matches = find(prefix);
+        if (matches.isEmpty()) {
+            rebuild();
+            matches = find(prefix);
+        }
+        if (matches.size() > 1) {
+            throw error("Commit id %s is ambiguous.", prefix);
+        }
+        return matches.isEmpty() ? "" : matches.get(0);
+    }
+
+    /** Return the UIDs of at most two indexed commits beginning with
+     *  PREFIX. */
+    private static List<String> find(String prefix) {
+        byte[] low = key(pad(prefix, '0'));
+        byte[] high = key(pad(prefix, 'f'));
+        ArrayList<String> matches = new ArrayList<>();
+        ByteBuffer index = map(INDEX_FILE);
+        int count = index.getInt(8);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw error("Corrupt commit index in .gitlet.");
+        }
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(index, HEADER_SIZE + mid * KEY_SIZE, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && matches.size() < 2
+                && compare(index, HEADER_SIZE + i * KEY_SIZE, high) <= 0;
+             i += 1) {
+            matches.add(hexAt(index, HEADER_SIZE + i * KEY_SIZE));
+        }
+        if (TAIL_FILE.isFile()) {
+            ByteBuffer tail = ByteBuffer.wrap(readContents(TAIL_FILE));
+            for (int pos = 0; pos + KEY_SIZE <= tail.limit()
+                     && matches.size() < 2; pos += KEY_SIZE) {
+                String uid = hexAt(tail, pos);
+                if (compare(tail, pos, low) >= 0
+                        && compare(tail, pos, high) <= 0
+                        && !matches.contains(uid)) {
+                    matches.add(uid);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /** Return the keys of every indexed commit, sorted file and tail. */
+    private static List<byte[]> allKeys() {
+        ArrayList<byte[]> keys = new ArrayList<>();
+        for (File file : new File[] {INDEX_FILE, TAIL_FILE}) {
+            if (!file.isFile()) {
+                continue;
+            }
+            byte[] contents = readContents(file);
+            int start = file == INDEX_FILE ? HEADER_SIZE : 0;
+            for (int pos = start; pos + KEY_SIZE <= contents.length;
+                 pos += KEY_SIZE) {
+                keys.add(Arrays.copyOfRange(contents, pos, pos + KEY_SIZE));
+            }
+        }
+        return keys;
+    }
+
+    /** Rewrite the index from every commit in the object store. */
+    private static void rebuild() {
+        ArrayList<byte[]> keys = new ArrayList<>();
+        for (String id : ObjectStore.listIds()) {
+            if (isCommitId(id)) {
+                keys.add(key(id.substring(5)));
+            }
+        }
+        write(keys);
+    }
+
+    /** Replace the index with KEYS, sorted without duplicates, and delete
+     *  the tail. */
+    private static void write(List<byte[]> keys) {
+        keys.sort(Arrays::compareUnsigned);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE
+                + keys.size() * KEY_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).putInt(0);
+        int count = 0;
+        byte[] last = null;
+        for (byte[] key : keys) {
+            if (last == null || !Arrays.equals(key, last)) {
+                out.put(key);
+                count += 1;
+            }
+            last = key;
+        }
+        out.putInt(8, count);
+        writeContents(INDEX_FILE, Arrays.copyOf(out.array(), out.position()));
+        if (TAIL_FILE.delete()) {
+            Durability.written(TAIL_FILE);
+        }
+    }
+
+    /** Return UID padded to UID_LENGTH characters with FILL. */
+    private static String pad(String uid, char fill) {
+        StringBuilder padded = new StringBuilder(uid);
+        while (padded.length() < UID_LENGTH) {
+            padded.append(fill);
+        }
+        return padded.toString();
+    }
+
+    /** Return the raw bytes of the hexadecimal UID. */
+    private static byte[] key(String uid) {
+        byte[] key = new byte[KEY_SIZE];
+        for (int i = 0; i < KEY_SIZE; i += 1) {
+            key[i] = (byte) Integer.parseInt(uid.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return key;
+    }
+
+    /** Compare the key in BUFFER at POS to KEY as unsigned bytes. */
+    private static int compare(ByteBuffer buffer, int pos, byte[] key) {
+        for (int k = 0; k < KEY_SIZE; k += 1) {
+            int cmp = Integer.compare(buffer.get(pos + k) & 0xff,
+                    key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the key in BUFFER at POS as a hexadecimal UID. */
+    private static String hexAt(ByteBuffer buffer, int pos) {
+        byte[] key = new byte[KEY_SIZE];
+        buffer.get(pos, key);
+        return ObjectStore.toHex(key);
+    }
+
+    /** Return FILE mapped read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a blob. A delta is the length of
+ *  the target followed by instructions that rebuild the target from a
+ *  base: an instruction byte N between 1 and MAX_INSERT inserts the N
+ *  literal bytes that follow it, and COPY followed by an int offset and
+ *  an int length copies that range of the base.
+ *  @author Thu Nguyen
+ */
+class Delta {
+    /** Instruction copying a range of the base. */
+    static final int COPY = 0x80;
+    /** Largest number of literal bytes inserted by one instruction. */
+    static final int MAX_INSERT = 0x7f;
+    /** Size of the base blocks indexed when searching for matches. */
+    static final int BLOCK = 16;
+
+    /** Return a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(blockHash(base, i), i);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        writeInt(result, target.length);
+        int literalStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer match = blocks.get(blockHash(target, i));
+            if (match == null || !regionMatches(base, match, target, i)) {
+                i += 1;
+                continue;
+            }
+            int baseStart = match, targetStart = i;
+            while (baseStart > 0 && targetStart > literalStart
+                    && base[baseStart - 1] == target[targetStart - 1]) {
+                baseStart -= 1;
+                targetStart -= 1;
+            }
+            int end = i + BLOCK, baseEnd = match + BLOCK;
+            while (end < target.length && baseEnd < base.length
+                    && base[baseEnd] == target[end]) {
+                end += 1;
+                baseEnd += 1;
+            }
+            insert(result, target, literalStart, targetStart);
+            result.write(COPY);
+            writeInt(result, baseStart);
+            writeInt(result, end - targetStart);
+            i = literalStart = end;
+        }
+        insert(result, target, literalStart, target.length);
+        return result.toByteArray();
+    }
+
+    /** Return the target rebuilt by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] target = new byte[in.getInt()];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get() & 0xff;
+            if (op == COPY) {
+                int offset = in.getInt();
+                int length = in.getInt();
+                System.arraycopy(base, offset, target, pos, length);
+                pos += length;
+            } else {
+                in.get(target, pos, op);
+                pos += op;
+            }
+        }
+        if (pos != target.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /** Write instructions inserting the bytes of TARGET from START up to
+     *  END to OUT. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int start, int end) {
+        while (start < end) {
+            int n = Math.min(MAX_INSERT, end - start);
+            out.write(n);
+            out.write(target, start, n);
+            start += n;
+        }
+    }
+
+    /** Write the big-endian int N to OUT. */
+    private static void writeInt(ByteArrayOutputStream out, int n) {
+        out.write(n >>> 24);
+        out.write(n >>> 16);
+        out.write(n >>> 8);
+        out.write(n);
+    }
+
+    /** Return a hash of the BLOCK bytes of DATA beginning at START. */
+    private static int blockHash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = 31 * h + data[k];
+        }
+        return h;
+    }
+
+    /** Return whether the BLOCK bytes of BASE at BASESTART equal those of
+     *  TARGET at TARGETSTART. */
+    private static boolean regionMatches(byte[] base, int baseStart,
+                                         byte[] target, int targetStart) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (base[baseStart + k] != target[targetStart + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+
+/** Crash safety of the files Gitlet writes. Files are written under a
+ *  temporary name and renamed into place, so a crash never leaves a
+ *  truncated object, ref or staging file behind. Rather than forcing
+ *  each file to disk as it is written, written files are remembered and
+ *  forced together by barrier(): once before a ref is moved to point at
+ *  new objects, and once at the end of each command.
+ *  Durability is on unless Gitlet runs with -Dgitlet.fsync=false.
+ *  @author Thu Nguyen
+ */
+class Durability {
+    /** Whether barrier() forces files to disk. */
+    private static boolean _enabled =
+        !"false".equals(System.getProperty("gitlet.fsync"));
+    /** Files written since the last barrier. */
+    private static final LinkedHashSet<Path> PENDING = new LinkedHashSet<>();
+
+    /** Turn forcing files to disk on if ENABLED, else off. */
+    static void setEnabled(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    /** Return a new temporary file next to FILE, to be written and then
+     *  moved into place with commit. */
+    static File tempFor(File file) {
+        try {
+            return Files.createTempFile(file.getAbsoluteFile().getParentFile()
+                    .toPath(), "." + file.getName(), ".tmp").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Atomically replace FILE with the fully written temporary file TMP,
+     *  and remember FILE for the next barrier. */
+    static void commit(File tmp, File file) {
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        written(file);
+    }
+
+    /** Remember that FILE was written, or deleted, since the last
+     *  barrier. */
+    static void written(File file) {
+        PENDING.add(file.getAbsoluteFile().toPath());
+    }
+
+    /** Force every file written since the last barrier, then the
+     *  directories holding them, to disk in one pass. */
+    static void barrier() {
+        if (!_enabled || PENDING.isEmpty()) {
+            PENDING.clear();
+            return;
+        }
+        LinkedHashSet<Path> dirs = new LinkedHashSet<>();
+        for (Path path : PENDING) {
+            if (Files.isRegularFile(path)) {
+                force(path);
+            }
+            dirs.add(path.getParent());
+        }
+        for (Path dir : dirs) {
+            force(dir);
+        }
+        PENDING.clear();
+    }
+
+    /** Force PATH to disk. Directories that cannot be opened for this, as
+     *  on some platforms, are skipped. */
+    private static void force(Path path) {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path)) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Blob.getBlobContentId;
+import static gitlet.Commit.isCommitId;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Verification of the object store. Every object is rehashed and
+ *  compared with its ID, and every reference made by a commit, a branch
+ *  or the staging area is checked to exist. Objects are verified by one
+ *  worker per core, fed through a queue of at most QUEUE_SIZE IDs so that
+ *  memory stays bounded however large the repository is.
+ *  Problems are reported one per line as tab-separated fields:
+ *  "corrupt [ID] [REASON]" for an object that does not match its ID or
+ *  cannot be read, and "missing [ID] [REFERRER]" for an object that is
+ *  referred to but not stored. Nothing is printed for a sound repository.
+ *  @author Thu Nguyen
+ */
+class Fsck {
+    /** Number of IDs waiting for a worker at most. */
+    static final int QUEUE_SIZE = 1024;
+
+    /** Problems found so far, as report lines. */
+    private final ConcurrentLinkedQueue<String> _problems =
+        new ConcurrentLinkedQueue<>();
+
+    /** Return the report lines of every problem in the repository,
+     *  sorted. A pack whose entries cannot even be listed is reported
+     *  corrupt, and only the loose objects are verified. */
+    static List<String> check() {
+        ObjectStore.compressed();
+        Pack.current();
+        Fsck fsck = new Fsck();
+        int workers = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers,
+                0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        List<String> ids;
+        try {
+            ids = ObjectStore.listIds();
+        } catch (RuntimeException excp) {
+            fsck.corrupt(Pack.current().dataFile().getName(), "unreadable");
+            ids = ObjectStore.listLooseIds("");
+        }
+        try {
+            for (String id : ids) {
+                pool.execute(() -> fsck.verify(id));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (Map.Entry<String, String> head : Refs.heads().entrySet()) {
+            fsck.checkExists("comm_" + head.getValue(),
+                    "branch " + head.getKey());
+        }
+        for (String blobId : readFileLinesAsArray(ADD_STAGE_FILE)) {
+            fsck.checkBlob(blobId, "staged");
+        }
+        ArrayList<String> problems = new ArrayList<>(fsck._problems);
+        Collections.sort(problems);
+        return problems;
+    }
+
+    /** Verify the object with ID, recording any problems. Any failure to
+     *  read or decode it, such as an index or length out of range in a
+     *  corrupt pack entry, reports it unreadable instead of ending the
+     *  worker or the whole check. */
+    private void verify(String id) {
+        try {
+            if (isCommitId(id)) {
+                verifyCommit(id);
+            } else if (Tree.isTreeId(id)) {
+                verifyTree(id);
+            } else if (ChunkedBlob.isManifestId(id)) {
+                verifyManifest(id);
+            } else if (!hashOf(ObjectStore.open(id)).equals(
+                    ObjectStore.hashOf(id))) {
+                corrupt(id, "hash mismatch");
+            }
+        } catch (RuntimeException | IOException excp) {
+            corrupt(id, "unreadable");
+        }
+    }
+
+    /** Verify the commit with ID and that its parents and tree, or blobs,
+     *  exist. */
+    private void verifyCommit(String id) {
+        byte[] bytes = ObjectStore.read(id);
+        if (!sha1(bytes).equals(ObjectStore.hashOf(id))) {
+            corrupt(id, "hash mismatch");
+            return;
+        }
+        Commit commit;
+        try {
+            commit = Commit.decode(bytes);
+        } catch (IllegalArgumentException | ClassCastException excp) {
+            corrupt(id, "undecodable");
+            return;
+        }
+        for (String parent : commit.getParentsID()) {
+            if (parent != null) {
+                checkExists("comm_" + parent, id);
+            }
+        }
+        if (commit.getTreeID() != null) {
+            checkExists(Tree.PREFIX + commit.getTreeID(), id);
+            return;
+        }
+        for (String blobId : commit.getBlobIDArray()) {
+            checkBlob(blobId, id);
+        }
+    }
+
+    /** Verify the tree with ID and that its subtrees and blobs exist. */
+    private void verifyTree(String id) {
+        byte[] bytes = ObjectStore.read(id);
+        if (!sha1(bytes).equals(ObjectStore.hashOf(id))) {
+            corrupt(id, "hash mismatch");
+            return;
+        }
+        List<Tree.Entry> entries;
+        try {
+            entries = Tree.read(ObjectStore.hashOf(id));
+        } catch (IllegalArgumentException excp) {
+            corrupt(id, "undecodable");
+            return;
+        }
+        for (Tree.Entry entry : entries) {
+            if (entry.isDirectory()) {
+                checkExists(Tree.PREFIX + entry.getUID(), id);
+            } else {
+                checkBlob(entry.getName() + entry.getUID(), id);
+            }
+        }
+    }
+
+    /** Verify the chunk manifest with ID: that each chunk exists, and that
+     *  the contents they make up hash to the manifest's contents UID. */
+    private void verifyManifest(String id) throws IOException {
+        String contentId = ObjectStore.hashOf(id);
+        boolean complete = true;
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+                ObjectStore.open(id), StandardCharsets.UTF_8))) {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                complete &= checkExists(line.substring(0, UID_LENGTH), id);
+            }
+        }
+        if (complete && !hashOf(ChunkedBlob.open(contentId))
+                .equals(contentId)) {
+            corrupt(id, "hash mismatch");
+        }
+    }
+
+    /** Record that the blob with ID, referred to by REFERRER, is missing
+     *  unless its contents are stored whole, as chunks, or under ID. */
+    private void checkBlob(String id, String referrer) {
+        String contentId = getBlobContentId(id);
+        if (!ObjectStore.exists(contentId)
+                && !ObjectStore.exists(ChunkedBlob.manifestId(contentId))
+                && !ObjectStore.exists(id)) {
+            _problems.add(String.join("\t", "missing", contentId, referrer));
+        }
+    }
+
+    /** Record that the object with ID, referred to by REFERRER, is missing
+     *  unless it exists. Return whether it exists. */
+    private boolean checkExists(String id, String referrer) {
+        if (ObjectStore.exists(id)) {
+            return true;
+        }
+        _problems.add(String.join("\t", "missing", id, referrer));
+        return false;
+    }
+
+    /** Record that the object with ID is corrupt for REASON. */
+    private void corrupt(String id, String reason) {
+        _problems.add(String.join("\t", "corrupt", id, reason));
+    }
+
+    /** Return the SHA-1 hash of everything left in IN, closing it. */
+    private static String hashOf(InputStream in) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+        try (InputStream digested = new DigestInputStream(in, md)) {
+            digested.transferTo(OutputStream.nullOutputStream());
+        }
+        return ObjectStore.toHex(md.digest());
+    }
+}
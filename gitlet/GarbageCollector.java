@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+import static gitlet.Blob.getBlobContentId;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Removal of objects no commit or staged file can reach. Objects reached
+ *  from the branch heads, through commit parents, and from the staging
+ *  area are marked in parallel on a fork-join pool; every other object is
+ *  then swept, unless it was written less than a grace period ago, since
+ *  a command running at the same time may be about to refer to it.
+ *  @author Thu Nguyen
+ */
+class GarbageCollector {
+    /** Default grace period, in milliseconds: two weeks. */
+    static final long GRACE = 14L * 24 * 60 * 60 * 1000;
+
+    /** IDs of the objects reached so far. */
+    private final Set<String> _marked = ConcurrentHashMap.newKeySet();
+    /** Objects written at or after this time are kept. */
+    private final long _cutoff;
+
+    /** A collector keeping objects written less than GRACE milliseconds
+     *  ago. */
+    private GarbageCollector(long grace) {
+        _cutoff = System.currentTimeMillis() - grace;
+    }
+
+    /** Delete every unreachable object written at least GRACE
+     *  milliseconds ago, and return how many were deleted. */
+    static int collect(long grace) {
+        ObjectStore.compressed();
+        Pack pack = Pack.current();
+        GarbageCollector gc = new GarbageCollector(grace);
+        gc.mark();
+        List<String> loose = new ArrayList<>();
+        List<String> packed = new ArrayList<>();
+        for (String id : ObjectStore.listIds()) {
+            if (gc._marked.contains(id)) {
+                continue;
+            } else if (pack != null && pack.contains(id)) {
+                packed.add(id);
+            } else {
+                loose.add(id);
+            }
+        }
+        List<String> expired = loose.parallelStream()
+                .filter(id -> gc.expired(ObjectStore.objectFile(id)))
+                .collect(Collectors.toList());
+        ObjectStore.deleteLoose(expired);
+        int deleted = expired.size();
+        if (!packed.isEmpty() && gc.expired(pack.dataFile())) {
+            Pack.repack(new HashSet<>(packed));
+            deleted += packed.size();
+        }
+        gc.sweepTemporaries();
+        if (expired.stream().anyMatch(Commit::isCommitId)
+                || packed.stream().anyMatch(Commit::isCommitId)) {
+            CommitGraph.invalidate();
+            CommitIndex.invalidate();
+            MessageIndex.invalidate();
+            Catalog.invalidate();
+        }
+        Reachability.select(Refs.heads().values());
+        return deleted;
+    }
+
+    /** Mark every object reachable from the branch heads and the staging
+     *  area. The commits the heads reach are found from the reachability
+     *  bitmaps (Reachability); their trees and blobs are then marked in
+     *  parallel. */
+    private void mark() {
+        Set<String> commits = Reachability.reachable(Refs.heads().values());
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+                    for (String uid : commits) {
+                        tasks.add(ForkJoinTask.adapt(() ->
+                                markCommit(uid, commits)));
+                    }
+                    invokeAll(tasks);
+                    for (String blobId
+                            : readFileLinesAsArray(ADD_STAGE_FILE)) {
+                        markBlob(blobId);
+                    }
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Mark the commit with UID, one of REACHED, and its tree or blobs. It
+     *  is an error for the commit, or any of its parents, to be missing,
+     *  since the commits behind them could not be reached. */
+    private void markCommit(String uid, Set<String> reached) {
+        _marked.add("comm_" + uid);
+        Commit commit = Commit.getCommit(uid);
+        if (commit == null) {
+            throw error("Commit %s is missing; nothing was removed.", uid);
+        }
+        for (String parent : commit.getParentsID()) {
+            if (parent != null && !reached.contains(parent)) {
+                throw error("Commit %s is missing; nothing was removed.",
+                        parent);
+            }
+        }
+        if (commit.getTreeID() != null) {
+            markTree(commit.getTreeID());
+            return;
+        }
+        for (String blobId : commit.getBlobIDArray()) {
+            markBlob(blobId);
+        }
+    }
+
+    /** Mark the tree with UID and everything under it. Trees already
+     *  marked, such as directories unchanged since an earlier commit, are
+     *  not read again. */
+    private void markTree(String uid) {
+        if (!_marked.add(Tree.PREFIX + uid)) {
+            return;
+        }
+        for (Tree.Entry entry : Tree.read(uid)) {
+            if (entry.isDirectory()) {
+                markTree(entry.getUID());
+            } else {
+                markBlob(entry.getName() + entry.getUID());
+            }
+        }
+    }
+
+    /** Mark the objects holding the contents of the blob with ID: its
+     *  contents object, or its manifest and chunks, or, for blobs stored
+     *  before contents were addressed alone, the blob itself. */
+    private void markBlob(String id) {
+        String contentId = getBlobContentId(id);
+        _marked.add(id);
+        _marked.add(contentId);
+        String manifestId = ChunkedBlob.manifestId(contentId);
+        if (!_marked.add(manifestId)) {
+            return;
+        }
+        InputStream manifest = ObjectStore.open(manifestId);
+        if (manifest == null) {
+            return;
+        }
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+                manifest, StandardCharsets.UTF_8))) {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                _marked.add(line.substring(0, UID_LENGTH));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return whether FILE was last written before the grace period. */
+    private boolean expired(File file) {
+        return file.lastModified() < _cutoff;
+    }
+
+    /** Delete temporary files left in the object store by interrupted
+     *  commands before the grace period. */
+    private void sweepTemporaries() {
+        ArrayList<File> dirs = new ArrayList<>();
+        dirs.add(OBJECTS_DIR.toFile());
+        File[] fanout = OBJECTS_DIR.toFile().listFiles(dir ->
+                dir.isDirectory() && dir.getName().length()
+                        == ObjectStore.FANOUT_LENGTH);
+        if (fanout != null) {
+            dirs.addAll(Arrays.asList(fanout));
+        }
+        for (File dir : dirs) {
+            File[] temps = dir.listFiles(file -> file.isFile()
+                    && file.getName().startsWith("."));
+            if (temps == null) {
+                continue;
+            }
+            for (File temp : temps) {
+                if (expired(temp) && temp.delete()) {
+                    Durability.written(temp);
+                }
+            }
+        }
+    }
+}
@@ -24,21 +24,31 @@ public class Main {
                     throw error("Not in an initialized Gitlet"
                             + "directory.");
                 }
+                ObjectStore.migrateLooseObjects();
+                Refs.migrate();
             } else {
                 if (Files.exists(DOT_GITLET_DIR)) {
                     throw error("Gitlet version-control system "
                             + "already exists in the current directory.");
                 }
             }
-            executeCommand(cmd, args);
+            int status = executeCommand(cmd, args);
+            StatCache.save();
+            Watcher.save();
+            Durability.barrier();
+            if (status != 0) {
+                System.exit(status);
+            }
         } catch (GitletException e) {
+            Durability.barrier();
             System.out.println(e.getMessage());
             System.exit(0);
         }
     }
 
-    /** Execute the command CMD, while passing its arguments ARGS. */
-    static void executeCommand(String cmd, String[] args) {
+    /** Execute the command CMD, while passing its arguments ARGS, and
+     *  return the status to exit with. */
+    static int executeCommand(String cmd, String[] args) {
         switch (cmd) {
         case "init":
             doInit(args);
@@ -79,8 +89,23 @@ public class Main {
         case "merge":
             doMerge(args);
             break;
+        case "repack":
+            doRepack(args);
+            break;
+        case "gc":
+            doGc(args);
+            break;
+        case "fsck":
+            return doFsck(args);
+        case "convert-commits":
+            doConvertCommits(args);
+            break;
+        case "watch":
+            doWatch(args);
+            break;
         default:
             throw error("No command with that name exists.");
         }
+        return 0;
     }
 }
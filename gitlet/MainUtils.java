@@ -1,6 +1,11 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -8,8 +13,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Arrays;
-import java.util.ArrayDeque;
 
 
 import static gitlet.Blob.*;
@@ -42,37 +47,31 @@ class MainUtils {
             DOT_GITLET_DIR.toString(), "current_branch.txt");
     /** File used to track staging area for removal. */
     static final File RM_STAGE_FILE = join(DOT_GITLET_DIR.toString(), "rm.txt");
-    /** File used to track all branches and their head commit. */
+    /** File used to track all branches and their head commit before they
+     *  were kept one per file (see Refs); read only to migrate them. */
     static final File BRANCH_HEAD_FILE = join(
             DOT_GITLET_DIR.toString(), "branch_head.txt");
+    /** File listing the storage features this repository uses, one per
+     *  line. Missing features are upgraded to on the next command. */
+    static final File FORMAT_FILE = join(
+            DOT_GITLET_DIR.toString(), "format.txt");
 
 
     /** Return HEAD ID of BRANCH. If does not exist, return empty string. */
     static String getBranchHeadID(String branch) {
-        String[] branchHeadLines = readContentsAsString(
-                BRANCH_HEAD_FILE).split("\\n");
-        for (String line : branchHeadLines) {
-            String[] branchAndHead = line.split(":");
-            if (branchAndHead[0].compareTo(branch) == 0) {
-                return branchAndHead[1];
-            }
-        }
-        return "";
+        String head = Refs.get(branch);
+        return head == null ? "" : head;
     }
 
     /** Return an array with current BRANCH as element at index 0 and HEAD ID
      *  as element at index 1. If branch does not exist, return empty array. */
     static String[] getCurrentBranchAndHeadID() {
-        String currentBranch = readContentsAsString(CURRENT_BRANCH);
-        String[] branchHeadLines = readContentsAsString(
-                BRANCH_HEAD_FILE).split("\\n");
-        for (String line : branchHeadLines) {
-            String[] branchHead = line.split(":");
-            if (branchHead[0].compareTo(currentBranch) == 0) {
-                return branchHead;
-            }
+        String currentBranch = Refs.current();
+        String head = Refs.get(currentBranch);
+        if (head == null) {
+            return new String[2];
         }
-        return new String[2];
+        return new String[] {currentBranch, head};
     }
 
     /** Return HashSet of lines within FILE. */
@@ -95,22 +94,18 @@ class MainUtils {
     }
 
     /** Update and overwrite the head of a BRANCH with specified ID out to
-     *  "branch_head.txt". If ID is already truncated,
-     *  i.e. equals UID_LENGTH, write it out. Else, truncate it. */
+     *  its file in .gitlet/refs (see Refs). If ID is already truncated,
+     *  i.e. equals UID_LENGTH, write it out. Else, truncate it.
+     *  Objects written so far are forced to disk first, so the branch
+     *  never points at a commit that a crash could lose. */
     static void updateHeadOfBranch(String branch, String id) {
+        Durability.barrier();
         if (id.length() == UID_LENGTH + 5) {
             id = id.substring(5);
         }
-        String[] branchHeadLines = readFileLinesAsArray(BRANCH_HEAD_FILE);
-        for (int i = 0; i < branchHeadLines.length; i++) {
-            String[] branchAndHead = branchHeadLines[i].split(":");
-            String thisBranch = branchAndHead[0];
-            if (thisBranch.compareTo(branch) == 0) {
-                branchHeadLines[i] = branchAndHead[0] + ":" + id;
-                break;
-            }
+        if (Refs.get(branch) != null) {
+            Refs.update(branch, id);
         }
-        writeContents(BRANCH_HEAD_FILE,  String.join("\n", branchHeadLines));
     }
 
     /** Update and overwrite the given FILE with NEWLINE while eliminating
@@ -129,8 +124,7 @@ class MainUtils {
 
     /** Return true if BRANCH is already the current branch.*/
     static boolean isCurrentBranch(String branch) {
-        if (readContentsAsString(join(CURRENT_BRANCH)).compareTo(
-                branch) == 0) {
+        if (Refs.current().compareTo(branch) == 0) {
             return true;
         }
         return false;
@@ -146,24 +140,28 @@ class MainUtils {
 
     /** Return whether BRANCH exists. */
     static boolean hasBranch(String branch) {
-        String[] branchHeadLines = readFileLinesAsArray(BRANCH_HEAD_FILE);
-        for (int i = 0; i < branchHeadLines.length; i++) {
-            if (branchHeadLines[i].split(":")[0].compareTo(branch) == 0) {
-                return true;
-            }
+        return Refs.get(branch) != null;
+    }
+
+    /** Delete the working file FILENAME, a path relative to the working
+     *  directory, if it exists, along with any directories above it left
+     *  empty. */
+    static void deleteWorkingFile(String fileName) {
+        File root = join(WORK_DIR_STR);
+        File file = join(root, fileName);
+        if (!file.isFile() || WorkTree.nameOf(fileName) == null) {
+            return;
+        }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(root)
+                 && dir.delete(); dir = dir.getParentFile()) {
+            continue;
         }
-        return false;
     }
 
     /** Return true if this COMMIT contains this FILENAME. */
     static boolean hasFile(String fileName, Commit commit) {
-        for (String blobId : commit.getBlobIDArray()) {
-            String blobName = getBlobFileName(blobId);
-            if (fileName.compareTo(blobName) == 0) {
-                return true;
-            }
-        }
-        return false;
+        return commit.getBlobID(fileName) != null;
     }
 
     /** Overwrite files in WORKING DIRECTORY by
@@ -176,19 +174,15 @@ class MainUtils {
     /** Overwrite files in WORKING DIRECTORY by
      *  FILENAME to files with COMMIT. */
     static void checkOutFilesOverwrite(String fileName, Commit commit) {
-        for (String blobID : commit.getBlobIDArray()) {
-            String blobFileName = getBlobFileName(blobID);
-            File blobFile = getBlobFile(blobID);
-            if (fileName.length() > 0) {
-                if (blobFileName.compareTo(fileName) == 0) {
-                    writeContents(join(WORK_DIR_STR, blobFileName),
-                            readContentsAsString(blobFile));
-                    break;
-                }
-            } else {
-                writeContents(join(WORK_DIR_STR, blobFileName),
-                        readContentsAsString(blobFile));
+        if (fileName.length() > 0) {
+            String blobID = commit.getBlobID(fileName);
+            if (blobID != null) {
+                copyBlob(blobID, join(WORK_DIR_STR, fileName));
             }
+            return;
+        }
+        for (String blobID : commit.getBlobIDArray()) {
+            copyBlob(blobID, join(WORK_DIR_STR, getBlobFileName(blobID)));
         }
     }
 
@@ -211,10 +205,9 @@ class MainUtils {
                 currentHeadCommit.getBlobIDArray());
         HashSet<String> commitTrackedBlobsFileNames = getBlobsName(
                 commit.getBlobIDArray());
-        for (File file : join(WORK_DIR_STR).listFiles()) {
-            if (currentTrackedBlobsFileNames.contains(file.getName())
-                    && !commitTrackedBlobsFileNames.contains(file.getName())) {
-                restrictedDelete(file);
+        for (String fileName : currentTrackedBlobsFileNames) {
+            if (!commitTrackedBlobsFileNames.contains(fileName)) {
+                deleteWorkingFile(fileName);
             }
         }
         checkOutFilesOverwrite("", commit);
@@ -248,12 +241,17 @@ class MainUtils {
         HashMap<String, String> curCommitBlobNameMapId = getBlobsNameMapId(
                 currentCommit.getBlobIDArray());
         ArrayList<String> modifiedBlobs = new ArrayList<>();
-        for (File file : join(WORK_DIR_STR).listFiles()) {
-            String fileName = file.getName();
-            if (fileName.compareTo(".gitlet") == 0) {
-                continue;
+        ArrayList<String> tracked = new ArrayList<>();
+        HashSet<String> present = new HashSet<>(WorkTree.files());
+        for (String fileName : present) {
+            if (addStage.containsKey(fileName)
+                    || curCommitBlobNameMapId.containsKey(fileName)) {
+                tracked.add(fileName);
             }
-            String fileID = fileName + sha1(readContentsAsString(file));
+        }
+        Map<String, String> uids = StatCache.hashAll(tracked);
+        for (String fileName : tracked) {
+            String fileID = fileName + uids.get(fileName);
             if (addStage.containsKey(fileName)) {
                 if (addStage.get(fileName).compareTo(fileID) != 0) {
                     modifiedBlobs.add(fileName + " (modified)");
@@ -265,12 +263,12 @@ class MainUtils {
             }
         }
         for (String fileName : addStage.keySet()) {
-            if (!Files.exists(join(WORK_DIR_STR, fileName).toPath())) {
+            if (!present.contains(fileName)) {
                 modifiedBlobs.add(fileName + " (deleted)");
             }
         }
         for (String fileName : curCommitBlobNameMapId.keySet()) {
-            if (!Files.exists(join(WORK_DIR_STR, fileName).toPath())
+            if (!present.contains(fileName)
                     && !rmStage.contains(fileName)) {
                 modifiedBlobs.add(fileName + " (deleted)");
             }
@@ -299,32 +297,15 @@ class MainUtils {
      * different content. */
     static boolean hasUntrackedFiles(Commit currentCommit,
                              HashMap<String, String> branchBlobNameMapID) {
-        HashSet<String> currCommitFileNames = getBlobsName(
-                currentCommit.getBlobIDArray());
-        HashSet<String> addStageFileNames = getBlobsName(
-                readFileLinesAsArray(ADD_STAGE_FILE));
-        for (File file : join(WORK_DIR_STR).listFiles()) {
-            String fileName = file.getName();
-            if (fileName.compareTo(".gitlet") != 0
-                    && !addStageFileNames.contains(fileName)
-                    && !currCommitFileNames.contains(fileName)) {
-                if (branchBlobNameMapID == null) {
-                    return true;
-                } else if (branchBlobNameMapID.containsKey(fileName)
-                        && branchBlobNameMapID.get(fileName).compareTo(
-                                readContentsAsString(file)) != 0) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return !untrackedFilesName(currentCommit, branchBlobNameMapID)
+                .isEmpty();
     }
 
     /** Returns an array list of names of untracked files, which are files
      * present in the working directory but neither staged for addition nor
      * tracked in CURRENTCOMMIT. If parameter BRANCHBLOBNAMEMAPID passed
      * is not null, add untracked file which exists in it and has different
-     * content. */
+     * content; those files are hashed in parallel (see StatCache). */
     static ArrayList<String> untrackedFilesName(Commit currentCommit,
                                 HashMap<String, String> branchBlobNameMapID) {
         ArrayList<String> untrackedFiles = new ArrayList<>();
@@ -332,20 +313,24 @@ class MainUtils {
                 currentCommit.getBlobIDArray());
         HashSet<String> addStageFileNames = getBlobsName(
                 readFileLinesAsArray(ADD_STAGE_FILE));
-        for (File file : join(WORK_DIR_STR).listFiles()) {
-            String fileName = file.getName();
-            if (fileName.compareTo(".gitlet") != 0
-                    && !addStageFileNames.contains(fileName)
+        ArrayList<String> toCompare = new ArrayList<>();
+        for (String fileName : WorkTree.files()) {
+            if (!addStageFileNames.contains(fileName)
                     && !currCommitFileNames.contains(fileName)) {
                 if (branchBlobNameMapID == null) {
                     untrackedFiles.add(fileName);
-                } else if (branchBlobNameMapID.containsKey(fileName)
-                        && branchBlobNameMapID.get(fileName).compareTo(
-                                readContentsAsString(file)) != 0) {
-                    untrackedFiles.add(fileName);
+                } else if (branchBlobNameMapID.containsKey(fileName)) {
+                    toCompare.add(fileName);
                 }
             }
         }
+        Map<String, String> uids = StatCache.hashAll(toCompare);
+        for (String fileName : toCompare) {
+            if (branchBlobNameMapID.get(fileName).compareTo(
+                    fileName + uids.get(fileName)) != 0) {
+                untrackedFiles.add(fileName);
+            }
+        }
         return untrackedFiles;
     }
 
@@ -368,7 +353,10 @@ class MainUtils {
      *  branch and BID is this branch's head ID.
      *  Choose the candidate split point that is closest to the head of the
      *  current branch (that is, is reachable by following the fewest parent
-     *  pointers along some path).
+     *  pointers along some path). History is walked in the commit graph
+     *  (CommitGraph) rather than by reading commits, and whether either
+     *  head is an ancestor of the other is first answered from the
+     *  reachability bitmaps (Reachability).
      *
      *  If the split point is the same commit as the given branch,
      *  the merge is complete. If the split point is the current branch,
@@ -379,52 +367,12 @@ class MainUtils {
         if (sameCommit(cCommit, bCommit)) {
             throw error("Well even Prof. Hilfinger didn't expect this.");
         }
-        Commit splitPoint = null;
-        ArrayDeque<Commit> fringe = new ArrayDeque<>();
-        HashSet<Commit> allAncestors = new HashSet<>();
-        HashSet<Commit> cBranchAncestors = new HashSet<>();
-        Commit tempCommit = null;
-
-        fringe.add(cCommit);
-        fringe.add(bCommit);
-        allAncestors.add(cCommit);
-        allAncestors.add(bCommit);
-        cBranchAncestors.add(cCommit);
-
-        outmostloop:
-        while (!fringe.isEmpty()) {
-            Commit c = fringe.remove();
-            if (c == null) {
-                continue;
-            }
-            for (int i = 0; i < 2; i += 1) {
-                if (c.getParentsID()[i] == null) {
-                    continue;
-                }
-                Commit cNext = getCommit(c.getParentsID()[i]);
-                for (Commit commit : allAncestors) {
-                    if (sameCommit(commit, cNext)) {
-                        splitPoint = commit;
-                        break outmostloop;
-                    }
-                }
-                if (tempCommit == null && cBranchAncestors.contains(c)
-                        && i == 1) {
-                    tempCommit = cNext;
-                    continue;
-                }
-                fringe.add(cNext);
-                if (tempCommit != null) {
-                    fringe.add(tempCommit);
-                    allAncestors.add(tempCommit);
-                    tempCommit = null;
-                }
-                allAncestors.add(cNext);
-                if (cBranchAncestors.contains(c)) {
-                    cBranchAncestors.add(cNext);
-                }
-            }
-        }
+        String cID = cCommit.getID().substring(5);
+        String bUID = bCommit.getID().substring(5);
+        String splitID = Reachability.isAncestor(bUID, cID) ? bUID
+                : Reachability.isAncestor(cID, bUID) ? cID
+                : CommitGraph.splitPoint(cID, bUID);
+        Commit splitPoint = getCommit(splitID);
         if (sameCommit(splitPoint, bCommit)) {
             throw error("Given branch is an ancestor of the current branch.");
         } else if (sameCommit(splitPoint, cCommit)) {
@@ -437,24 +385,74 @@ class MainUtils {
 
     /** Overwrite content of file with FILENAME in working directory with
      *  formatted replacement for files with merge conflicts. This format
-     *  combines contents from both CBLOBNAMEMAPID and BBLOBNAMEMAPID.
+     *  combines contents from both CBLOBNAMEMAPID and BBLOBNAMEMAPID,
+     *  streamed from their blobs into a temporary file that then replaces
+     *  the file (see Durability), creating its directory if needed.
      *  Stage the file to be added in next commit.
      *  Return the new blob ID from the process. */
     static String mergeConflictReplace(HashMap<String, String> cBlobNameMapID,
                                      HashMap<String, String> bBlobNameMapID,
                                      String fileName) {
-        String currString = (cBlobNameMapID.containsKey(fileName))
-                ? readContentsAsString(join(OBJECTS_DIR.toString(),
-                cBlobNameMapID.get(fileName)))
-                : "";
-        String branchString = (bBlobNameMapID.containsKey(fileName))
-                ? readContentsAsString(join(OBJECTS_DIR.toString(),
-                bBlobNameMapID.get(fileName)))
-                : "";
-        String replacementContent = "<<<<<<< HEAD\n" + currString
-                + "=======\n" + branchString + ">>>>>>>\n";
-        writeContents(join(WORK_DIR_STR, fileName), replacementContent);
-        return fileName + sha1(replacementContent);
+        File file = join(WORK_DIR_STR, fileName);
+        file.getParentFile().mkdirs();
+        File tmp = Durability.tempFor(file);
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()))) {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (cBlobNameMapID.containsKey(fileName)) {
+                try (InputStream in = openBlob(
+                        cBlobNameMapID.get(fileName))) {
+                    in.transferTo(out);
+                }
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (bBlobNameMapID.containsKey(fileName)) {
+                try (InputStream in = openBlob(
+                        bBlobNameMapID.get(fileName))) {
+                    in.transferTo(out);
+                }
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.commit(tmp, file);
+        return new Blob(fileName, file).getID();
+    }
+
+    /** Stage the files that neither CCOMMIT nor BCOMMIT changed since the
+     *  split point SPLITPT, as they are, and remove them from CMAP, BMAP and
+     *  SPLITPTMAP, the maps of blob name to ID of those commits, so that
+     *  merge only considers changed files. Changes are found by comparing
+     *  the commits' trees, skipping directories whose tree is the same.
+     *  Nothing is done unless all three commits have trees. */
+    static void stageUnchanged(Commit splitPt, Commit cCommit,
+                               Commit bCommit,
+                               HashMap<String, String> splitPtMap,
+                               HashMap<String, String> cMap,
+                               HashMap<String, String> bMap) {
+        if (splitPt.getTreeID() == null || cCommit.getTreeID() == null
+                || bCommit.getTreeID() == null) {
+            return;
+        }
+        HashSet<String> changed = new HashSet<>(Tree.changedPaths(
+                splitPt.getTreeID(), cCommit.getTreeID()));
+        changed.addAll(Tree.changedPaths(splitPt.getTreeID(),
+                bCommit.getTreeID()));
+        ArrayList<String> unchanged = new ArrayList<>();
+        for (String name : new ArrayList<>(splitPtMap.keySet())) {
+            if (!changed.contains(name)) {
+                unchanged.add(splitPtMap.remove(name));
+                cMap.remove(name);
+                bMap.remove(name);
+            }
+        }
+        if (!unchanged.isEmpty()) {
+            unchanged.addAll(Arrays.asList(
+                    readFileLinesAsArray(ADD_STAGE_FILE)));
+            writeContents(ADD_STAGE_FILE, String.join("\n", unchanged));
+        }
     }
 
     /** Merges files from the given branch into the current branch.
@@ -494,7 +492,7 @@ class MainUtils {
                     splitPtId) == 0) || (!cContains && bContains
                     && bMap.get(name).compareTo(splitPtId) == 0)) {
                 addLineToFile(RM_STAGE_FILE, name);
-                restrictedDelete(Paths.get(WORK_DIR_STR, name).toString());
+                deleteWorkingFile(name);
                 toBeRm.add(name);
             }
         }
@@ -511,9 +509,7 @@ class MainUtils {
                 hasConflict = true;
             }
             if (!splitPtMap.containsKey(name) && !cMap.containsKey(name)) {
-                String branchBlobContent = readContentsAsString(join(
-                        OBJECTS_DIR.toString(), bMap.get(name)));
-                writeContents(join(WORK_DIR_STR, name), branchBlobContent);
+                copyBlob(bMap.get(name), join(WORK_DIR_STR, name));
                 toBeStaged.put(name, bMap.get(name));
             }
         }
@@ -0,0 +1,269 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static gitlet.Commit.getCommit;
+import static gitlet.Commit.isCommitId;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Inverted index of commit messages, in .gitlet/message-index. Each
+ *  message is indexed under its SHA-1 hash, for exact matches, and under
+ *  each of its distinct trigrams (runs of three characters), for
+ *  substring and regular expression searches. A posting is a line
+ *  "[KEY] [COMMIT UID]", where KEY is "m" followed by the message's hash
+ *  or "t" followed by the trigram's UTF-8 bytes in hexadecimal, appended
+ *  to one of BUCKETS bucket files chosen by the hash of KEY. Searches
+ *  only read the buckets of the keys they look up, and check each
+ *  candidate commit's message before reporting it. The index is rebuilt
+ *  from the object store when it is missing; READY_FILE is written last,
+ *  so an interrupted rebuild is redone.
+ *  @author Thu Nguyen
+ */
+class MessageIndex {
+    /** Directory of the bucket files. */
+    static final File INDEX_DIR = join(DOT_GITLET_DIR.toString(),
+            "message-index");
+    /** File marking a complete index. */
+    static final File READY_FILE = join(INDEX_DIR, "ready");
+    /** Number of bucket files. */
+    static final int BUCKETS = 4096;
+    /** Length of the runs of characters indexed. */
+    static final int GRAM = 3;
+
+    /** Index the commit with UID and MESSAGE. */
+    static void add(String uid, String message) {
+        if (!READY_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        for (Map.Entry<File, StringBuilder> bucket
+                 : postings(uid, message, new HashMap<>()).entrySet()) {
+            try {
+                Files.write(bucket.getKey().toPath(), bucket.getValue()
+                        .toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Durability.written(bucket.getKey());
+        }
+    }
+
+    /** Delete the index after commits were deleted or replaced, so that it
+     *  is rebuilt when next needed. */
+    static void invalidate() {
+        File[] files = INDEX_DIR.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+            INDEX_DIR.delete();
+            Durability.written(INDEX_DIR);
+        }
+    }
+
+    /** Return the UIDs of the commits whose message is MESSAGE, oldest
+     *  first. */
+    static List<String> findExact(String message) {
+        List<String> candidates = lookup(List.of(messageKey(message)));
+        return verify(candidates, message::equals);
+    }
+
+    /** Return the UIDs of the commits whose message contains TEXT, oldest
+     *  first. */
+    static List<String> findSubstring(String text) {
+        List<String> candidates = text.length() < GRAM ? allCommits()
+                : lookup(gramKeys(text));
+        return verify(candidates, message -> message.contains(text));
+    }
+
+    /** Return the UIDs of the commits whose message contains a match of
+     *  PATTERN, oldest first. Commits lacking some trigram of a literal
+     *  that every match must contain are never read. */
+    static List<String> findRegex(Pattern pattern) {
+        ArrayList<String> keys = new ArrayList<>();
+        for (String literal : requiredLiterals(pattern.pattern())) {
+            keys.addAll(gramKeys(literal));
+        }
+        List<String> candidates = keys.isEmpty() ? allCommits()
+                : lookup(keys);
+        return verify(candidates, message -> pattern.matcher(message).find());
+    }
+
+    /** Return the UIDs among CANDIDATES of commits whose message passes
+     *  TEST. */
+    private static List<String> verify(List<String> candidates,
+                                       Predicate<String> test) {
+        ArrayList<String> found = new ArrayList<>();
+        for (String uid : candidates) {
+            Commit commit = getCommit(uid);
+            if (commit != null && test.test(commit.getLogMessage())) {
+                found.add(uid);
+            }
+        }
+        return found;
+    }
+
+    /** Return the UIDs of the commits posted under every one of KEYS, in
+     *  the order they were indexed. */
+    private static List<String> lookup(List<String> keys) {
+        if (!READY_FILE.isFile()) {
+            rebuild();
+        }
+        LinkedHashSet<String> result = null;
+        for (String key : new LinkedHashSet<>(keys)) {
+            LinkedHashSet<String> uids = new LinkedHashSet<>();
+            File bucket = bucketOf(key);
+            if (bucket.isFile()) {
+                for (String line : readContentsAsString(bucket).split("\n")) {
+                    String uid = line.substring(line.indexOf(' ') + 1);
+                    if (line.startsWith(key + " ")
+                            && (result == null || result.contains(uid))) {
+                        uids.add(uid);
+                    }
+                }
+            }
+            result = uids;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return new ArrayList<>(result == null ? new LinkedHashSet<>()
+                : result);
+    }
+
+    /** Return the UIDs of every commit, oldest first. */
+    private static List<String> allCommits() {
+        ArrayList<String> uids = new ArrayList<>();
+        for (Commit commit : sortedCommits()) {
+            uids.add(commit.getID().substring(5));
+        }
+        return uids;
+    }
+
+    /** Return every commit, oldest first. */
+    private static List<Commit> sortedCommits() {
+        ArrayList<Commit> commits = new ArrayList<>();
+        for (String id : ObjectStore.listIds()) {
+            if (isCommitId(id)) {
+                commits.add(getCommit(id.substring(5)));
+            }
+        }
+        commits.sort((x, y) -> Long.compare(x.getTimeMillis(),
+                y.getTimeMillis()));
+        return commits;
+    }
+
+    /** Rewrite the index from every commit in the object store. */
+    private static void rebuild() {
+        invalidate();
+        INDEX_DIR.mkdirs();
+        HashMap<File, StringBuilder> buckets = new HashMap<>();
+        for (Commit commit : sortedCommits()) {
+            postings(commit.getID().substring(5), commit.getLogMessage(),
+                    buckets);
+        }
+        for (Map.Entry<File, StringBuilder> bucket : buckets.entrySet()) {
+            writeContents(bucket.getKey(), bucket.getValue().toString());
+        }
+        Durability.barrier();
+        writeContents(READY_FILE, "");
+    }
+
+    /** Add the posting lines of the commit with UID and MESSAGE to
+     *  BUCKETS, by bucket file, and return BUCKETS. */
+    private static HashMap<File, StringBuilder> postings(
+            String uid, String message, HashMap<File, StringBuilder> buckets) {
+        ArrayList<String> keys = gramKeys(message);
+        keys.add(messageKey(message));
+        for (String key : new LinkedHashSet<>(keys)) {
+            buckets.computeIfAbsent(bucketOf(key), k -> new StringBuilder())
+                    .append(key).append(' ').append(uid).append('\n');
+        }
+        return buckets;
+    }
+
+    /** Return the key of exact matches of MESSAGE. */
+    private static String messageKey(String message) {
+        return "m" + sha1(message);
+    }
+
+    /** Return the keys of the trigrams of TEXT. */
+    private static ArrayList<String> gramKeys(String text) {
+        ArrayList<String> keys = new ArrayList<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            keys.add("t" + ObjectStore.toHex(text.substring(i, i + GRAM)
+                    .getBytes(StandardCharsets.UTF_8)));
+        }
+        return keys;
+    }
+
+    /** Return the bucket file of KEY. */
+    private static File bucketOf(String key) {
+        return join(INDEX_DIR, String.format("%03x",
+                Math.floorMod(key.hashCode(), BUCKETS)));
+    }
+
+    /** Return runs of literal characters that any match of the regular
+     *  expression REGEX must contain. Literals inside groups, character
+     *  classes and escapes are left out, and nothing is returned for
+     *  alternations and flags, so the runs may be fewer than could be
+     *  required, but never more. */
+    static List<String> requiredLiterals(String regex) {
+        ArrayList<String> literals = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?")
+                || regex.contains("\\Q")) {
+            return literals;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()
+                    && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                i += 1;
+                run.append(regex.charAt(i));
+                continue;
+            } else if (c == '\\') {
+                i += 1;
+            } else if (c == '?' || c == '*' || c == '{') {
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                while (c == '{' && i < regex.length()
+                        && regex.charAt(i) != '}') {
+                    i += 1;
+                }
+            } else if (c == '[') {
+                while (i < regex.length() && regex.charAt(i) != ']') {
+                    i += regex.charAt(i) == '\\' ? 2 : 1;
+                }
+            } else if (c == '(' || c == ')') {
+                depth += c == '(' ? 1 : -1;
+            } else if (".+^$".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            }
+            if (run.length() >= GRAM && depth == 0) {
+                literals.add(run.toString());
+            }
+            run.setLength(0);
+        }
+        if (run.length() >= GRAM && depth == 0) {
+            literals.add(run.toString());
+        }
+        return literals;
+    }
+}
@@ -0,0 +1,373 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+import static gitlet.MainUtils.*;
+
+/** Storage of blobs and commits inside .gitlet/objects. Loose objects are
+ *  fanned out into subdirectories named by the first FANOUT_LENGTH
+ *  characters of their SHA-1 hash, i.e. .gitlet/objects/ab/[ID] for an
+ *  object whose hash begins with "ab", so no single directory grows with
+ *  the repository. Repositories with the ZLIB_FEATURE store loose objects
+ *  deflated. The repack command moves loose objects into a Pack;
+ *  objects written afterwards stay loose until the next repack.
+ *  @author Thu Nguyen
+ */
+class ObjectStore {
+    /** Number of hash characters naming a fan-out directory. */
+    static final int FANOUT_LENGTH = 2;
+    /** Feature line in the format file marking a fanned-out object
+     *  directory. */
+    static final String FANOUT_FEATURE = "fanout";
+    /** Feature line in the format file marking zlib-compressed loose
+     *  objects. Repositories created without it keep storing objects
+     *  uncompressed. */
+    static final String ZLIB_FEATURE = "zlib";
+    /** Beginning of the name of an object being ingested. */
+    static final String TEMP_PREFIX = ".ingest";
+    /** Size of the buffers used to stream objects through zlib. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** Whether loose objects are compressed, read from the format file on
+     *  first use. Null until then. */
+    private static Boolean _compressed;
+
+    /** Return whether this repository compresses loose objects. */
+    static boolean compressed() {
+        if (_compressed == null) {
+            _compressed = readFileLines(FORMAT_FILE).contains(ZLIB_FEATURE);
+        }
+        return _compressed;
+    }
+
+    /** Return the SHA-1 hash part of object ID, which is always its last
+     *  UID_LENGTH characters (commits begin with "comm_", blobs with their
+     *  file name). */
+    static String hashOf(String id) {
+        return id.substring(id.length() - UID_LENGTH);
+    }
+
+    /** Return the fan-out directory that holds objects whose hash begins
+     *  with HASH. */
+    static File fanoutDir(String hash) {
+        return join(OBJECTS_DIR.toString(), hash.substring(0, FANOUT_LENGTH));
+    }
+
+    /** Return the file in which the object with ID is (or would be)
+     *  stored loose. */
+    static File objectFile(String id) {
+        return join(fanoutDir(hashOf(id)), id);
+    }
+
+    /** Return whether the object with ID exists, loose or packed. */
+    static boolean exists(String id) {
+        if (id.length() < UID_LENGTH) {
+            return false;
+        }
+        Pack pack = Pack.current();
+        return objectFile(id).isFile()
+                || (pack != null && pack.contains(id));
+    }
+
+    /** Write CONTENTS out as the object with ID, creating its fan-out
+     *  directory if needed. */
+    static void write(String id, Object... contents) {
+        File file = objectFile(id);
+        file.getParentFile().mkdir();
+        if (compressed()) {
+            writeDeflated(file, contents);
+        } else {
+            writeContents(file, contents);
+        }
+    }
+
+    /** Return the contents of the object with ID. Return null if the
+     *  object does not exist. */
+    static byte[] read(String id) {
+        if (id.length() < UID_LENGTH) {
+            return null;
+        }
+        File file = objectFile(id);
+        if (file.isFile()) {
+            return compressed() ? readInflated(file) : readContents(file);
+        }
+        Pack pack = Pack.current();
+        return pack == null ? null : pack.read(id);
+    }
+
+    /** Return the IDs of all objects, loose or packed, whose hash begins
+     *  with HASHPREFIX. A prefix of at least FANOUT_LENGTH characters only
+     *  lists its own fan-out directory. */
+    static List<String> listIds(String hashPrefix) {
+        ArrayList<String> ids = new ArrayList<>();
+        Pack pack = Pack.current();
+        if (pack != null) {
+            for (String id : pack.ids()) {
+                if (hashOf(id).startsWith(hashPrefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+        for (String id : listLooseIds(hashPrefix)) {
+            if (pack == null || !pack.contains(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /** Return the IDs of all loose objects whose hash begins with
+     *  HASHPREFIX. */
+    static List<String> listLooseIds(String hashPrefix) {
+        ArrayList<String> ids = new ArrayList<>();
+        File[] dirs;
+        if (hashPrefix.length() >= FANOUT_LENGTH) {
+            dirs = new File[] {fanoutDir(hashPrefix)};
+        } else {
+            dirs = OBJECTS_DIR.toFile().listFiles(dir -> dir.isDirectory()
+                    && dir.getName().length() == FANOUT_LENGTH);
+        }
+        if (dirs == null) {
+            return ids;
+        }
+        for (File dir : dirs) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.length() >= UID_LENGTH && !name.startsWith(".")
+                        && hashOf(name).startsWith(hashPrefix)) {
+                    ids.add(name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Return the IDs of all objects. */
+    static List<String> listIds() {
+        return listIds("");
+    }
+
+    /** Store the contents of SOURCE as the object named by their SHA-1
+     *  UID, unless it already exists, and return that UID. SOURCE is read
+     *  once, as a stream: its bytes are hashed while they are copied into
+     *  a temporary object, which is then moved into place. */
+    static String ingest(File source) {
+        File tmp;
+        MessageDigest md;
+        try {
+            tmp = Files.createTempFile(OBJECTS_DIR, TEMP_PREFIX, null)
+                    .toFile();
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (InputStream in = new DigestInputStream(
+                Files.newInputStream(source.toPath()), md);
+             OutputStream out = openForWrite(tmp)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = toHex(md.digest());
+        if (exists(id)) {
+            tmp.delete();
+            return id;
+        }
+        File file = objectFile(id);
+        file.getParentFile().mkdir();
+        Durability.commit(tmp, file);
+        return id;
+    }
+
+    /** Return a stream of the contents of the object with ID, or null if
+     *  the object does not exist. Loose objects are streamed from disk. */
+    static InputStream open(String id) {
+        if (id.length() < UID_LENGTH) {
+            return null;
+        }
+        File file = objectFile(id);
+        try {
+            if (file.isFile()) {
+                InputStream in = Files.newInputStream(file.toPath());
+                return compressed()
+                        ? new InflaterInputStream(in, new Inflater(),
+                                BUFFER_SIZE)
+                        : in;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Pack pack = Pack.current();
+        byte[] contents = pack == null ? null : pack.read(id);
+        return contents == null ? null : new ByteArrayInputStream(contents);
+    }
+
+    /** Write the contents of the object with ID to OUT, and return whether
+     *  the object exists. Uncompressed loose objects are transferred by
+     *  the file system without passing through the heap, packed objects
+     *  are written from the mapped pack, and compressed objects are
+     *  inflated through a buffer of BUFFER_SIZE bytes. */
+    static boolean copyTo(String id, FileChannel out) {
+        if (id.length() < UID_LENGTH) {
+            return false;
+        }
+        File file = objectFile(id);
+        try {
+            if (file.isFile() && !compressed()) {
+                try (FileChannel in = FileChannel.open(file.toPath(),
+                        StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long pos = 0; pos < size; ) {
+                        pos += in.transferTo(pos, size - pos, out);
+                    }
+                }
+                return true;
+            } else if (file.isFile()) {
+                try (InputStream in = open(id)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        wrapped.clear().limit(n);
+                        while (wrapped.hasRemaining()) {
+                            out.write(wrapped);
+                        }
+                    }
+                }
+                return true;
+            }
+            Pack pack = Pack.current();
+            ByteBuffer contents = pack == null ? null : pack.buffer(id);
+            if (contents == null) {
+                return false;
+            }
+            while (contents.hasRemaining()) {
+                out.write(contents);
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream writing FILE in this repository's object format. */
+    private static OutputStream openForWrite(File file) throws IOException {
+        OutputStream out = Files.newOutputStream(file.toPath());
+        if (compressed()) {
+            return new DeflaterOutputStream(out,
+                    new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /** Return the lowercase hexadecimal numeral of BYTES. */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /** Write the concatenation of CONTENTS, each a String or a byte array,
+     *  to FILE through a streaming Deflater. Throws IllegalArgumentException
+     *  in case of problems. */
+    static void writeDeflated(File file, Object... contents) {
+        File tmp = Durability.tempFor(file);
+        try (OutputStream out = new DeflaterOutputStream(
+                Files.newOutputStream(tmp.toPath()),
+                new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE)) {
+            for (Object obj : contents) {
+                if (obj instanceof byte[]) {
+                    out.write((byte[]) obj);
+                } else {
+                    out.write(((String) obj).getBytes(
+                            StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException | ClassCastException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.commit(tmp, file);
+    }
+
+    /** Return the contents of FILE, written by writeDeflated, inflated
+     *  through a streaming Inflater. Throws IllegalArgumentException in
+     *  case of problems. */
+    static byte[] readInflated(File file) {
+        try (InputStream in = new InflaterInputStream(
+                Files.newInputStream(file.toPath()), new Inflater(),
+                BUFFER_SIZE)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Delete the loose copies of the objects with IDS, and any fan-out
+     *  directory left empty. */
+    static void deleteLoose(List<String> ids) {
+        for (String id : ids) {
+            File file = objectFile(id);
+            if (file.delete()) {
+                file.getParentFile().delete();
+                Durability.written(file.getParentFile());
+            }
+        }
+    }
+
+    /** Move objects of a repository created before fan-out was introduced
+     *  from the top of .gitlet/objects into their fan-out directories.
+     *  Runs once; afterwards the format file records FANOUT_FEATURE. */
+    static void migrateLooseObjects() {
+        if (readFileLines(FORMAT_FILE).contains(FANOUT_FEATURE)) {
+            return;
+        }
+        List<String> names = plainFilenamesIn(OBJECTS_DIR.toFile());
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() < UID_LENGTH) {
+                    continue;
+                }
+                File target = objectFile(name);
+                target.getParentFile().mkdir();
+                try {
+                    Files.move(join(OBJECTS_DIR.toString(), name).toPath(),
+                            target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    Durability.written(target);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        Durability.barrier();
+        addLineToFile(FORMAT_FILE, FANOUT_FEATURE);
+    }
+}
@@ -0,0 +1,517 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Blob.getBlobContentId;
+import static gitlet.Blob.getBlobFileName;
+import static gitlet.Commit.getCommit;
+import static gitlet.Commit.isCommitId;
+import static gitlet.Utils.*;
+import static gitlet.MainUtils.*;
+
+/** A pack consolidating many objects into a single data file,
+ *  .gitlet/objects/pack/[NAME].dat, plus a sorted index, [NAME].idx,
+ *  where .gitlet/objects/pack/current holds the NAME of the pack in use.
+ *  repack writes a new pair under a new name and then switches to it by
+ *  replacing current, so a crash leaves either the old pair or the new
+ *  one in use, never a data file with the other's index.
+ *
+ *  The data file is a header followed by one entry per object:
+ *  [ID LENGTH][ID][WHOLE][CONTENT LENGTH][CONTENT] for an object stored
+ *  whole, or [ID LENGTH][ID][DELTA][BASE OFFSET][DELTA LENGTH][DELTA] for
+ *  blob contents stored as a Delta against the entry at BASE OFFSET. Version 1
+ *  packs have no WHOLE/DELTA byte and store every object whole. The index
+ *  is a header followed by fixed-size records [KEY][OFFSET][LENGTH]
+ *  sorted by KEY, the raw SHA-1 of the object's ID, so that lookups are a
+ *  binary search over the memory-mapped index. A data file holds at most
+ *  MAX_PACK_SIZE bytes, so it is mapped whole and its offsets fit an
+ *  int.
+ *  @author Thu Nguyen
+ */
+class Pack {
+    /** Directory holding the pack. */
+    static final File PACK_DIR = join(OBJECTS_DIR.toString(), "pack");
+    /** File holding the name of the pack in use. */
+    static final File CURRENT_FILE = join(PACK_DIR, "current");
+    /** Beginning of the name of every pack. */
+    static final String NAME_PREFIX = "pack-";
+    /** Suffix of a pack's data file. */
+    static final String DATA_SUFFIX = ".dat";
+    /** Suffix of a pack's index file. */
+    static final String INDEX_SUFFIX = ".idx";
+    /** Largest data file repack writes. */
+    static final long MAX_PACK_SIZE = Integer.MAX_VALUE;
+    /** Magic number beginning the data file. */
+    static final int PACK_MAGIC = 0x4750414b;
+    /** Magic number beginning the index file. */
+    static final int INDEX_MAGIC = 0x47494458;
+    /** Format version of both files written by repack. */
+    static final int VERSION = 2;
+    /** Entry type of an object stored whole. */
+    static final int WHOLE = 0;
+    /** Entry type of a blob stored as a delta. */
+    static final int DELTA = 1;
+    /** Longest chain of deltas applied to rebuild one blob, bounding the
+     *  cost of reading a packed blob. */
+    static final int MAX_DELTA_DEPTH = 10;
+    /** Number of previous versions of a file tried as delta bases. */
+    static final int WINDOW = 10;
+    /** Size of the header of either file: magic, version, count. */
+    static final int HEADER_SIZE = 12;
+    /** Size of a raw SHA-1 key. */
+    static final int KEY_SIZE = 20;
+    /** Size of one index record: key, long offset, int length. */
+    static final int RECORD_SIZE = KEY_SIZE + 8 + 4;
+
+    /** The pack of this repository, opened on first use and kept for the
+     *  rest of the command. Null if not yet opened. */
+    private static Pack _current;
+    /** Whether _current has been looked up. */
+    private static boolean _opened;
+
+    /** The data file. */
+    private final File _dataFile;
+    /** Mapped index. */
+    private final MappedByteBuffer _index;
+    /** Mapped data file. */
+    private final MappedByteBuffer _data;
+    /** Number of objects in the pack. */
+    private final int _count;
+    /** Format version of the pack. */
+    private final int _version;
+
+    /** Map the index and data files of the pack NAME into memory. */
+    private Pack(String name) {
+        _dataFile = join(PACK_DIR, name + DATA_SUFFIX);
+        _index = map(join(PACK_DIR, name + INDEX_SUFFIX));
+        _data = map(_dataFile);
+        _version = _data.getInt(4);
+        if (_index.getInt(0) != INDEX_MAGIC || _data.getInt(0) != PACK_MAGIC
+                || _version < 1 || _version > VERSION) {
+            throw error("Corrupt pack in .gitlet/objects/pack.");
+        }
+        _count = _index.getInt(8);
+    }
+
+    /** Return the repository's pack, or null if it has none. */
+    static Pack current() {
+        if (!_opened) {
+            _opened = true;
+            if (CURRENT_FILE.isFile()) {
+                _current = new Pack(readContentsAsString(CURRENT_FILE));
+            }
+        }
+        return _current;
+    }
+
+    /** Forget the open pack, so the next call to current() re-maps it. */
+    static void reset() {
+        _current = null;
+        _opened = false;
+    }
+
+    /** Return the pack's data file. */
+    File dataFile() {
+        return _dataFile;
+    }
+
+    /** Return whether the pack holds the object with ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Return the contents of the object with ID, or null if the pack does
+     *  not hold it. */
+    byte[] read(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        return readEntry((int) _index.getLong(recordStart(i) + KEY_SIZE));
+    }
+
+    /** Return a buffer of the contents of the object with ID, or null if
+     *  the pack does not hold it. Objects stored whole are a view of the
+     *  mapped pack rather than a copy. */
+    ByteBuffer buffer(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        int pos = (int) _index.getLong(recordStart(i) + KEY_SIZE);
+        int start = pos + 4 + _data.getInt(pos);
+        if (_version >= 2 && _data.get(start) == DELTA) {
+            return ByteBuffer.wrap(readEntry(pos));
+        }
+        start += _version >= 2 ? 1 : 0;
+        return _data.slice(start + 4, lengthAt(start));
+    }
+
+    /** Return the contents of the object whose entry begins at POS,
+     *  applying deltas to rebuild it if needed. */
+    private byte[] readEntry(int pos) {
+        pos += 4 + _data.getInt(pos);
+        int type = WHOLE;
+        if (_version >= 2) {
+            type = _data.get(pos);
+            pos += 1;
+        }
+        if (type == DELTA) {
+            int base = (int) _data.getLong(pos);
+            byte[] delta = new byte[lengthAt(pos + 8)];
+            _data.get(pos + 12, delta);
+            return Delta.apply(readEntry(base), delta);
+        }
+        byte[] contents = new byte[lengthAt(pos)];
+        _data.get(pos + 4, contents);
+        return contents;
+    }
+
+    /** Return the IDs of all packed objects, in index order. */
+    List<String> ids() {
+        ArrayList<String> ids = new ArrayList<>(_count);
+        for (int i = 0; i < _count; i += 1) {
+            ids.add(idAt((int) _index.getLong(recordStart(i) + KEY_SIZE)));
+        }
+        return ids;
+    }
+
+    /** Return the ID of the data entry beginning at POS. */
+    private String idAt(int pos) {
+        byte[] id = new byte[lengthAt(pos)];
+        _data.get(pos + 4, id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /** Return the length stored at POS of the bytes that follow it, which
+     *  must fit in the data file. */
+    private int lengthAt(int pos) {
+        int length = _data.getInt(pos);
+        if (length < 0 || length > _data.limit() - pos - 4) {
+            throw error("Corrupt pack in .gitlet/objects/pack.");
+        }
+        return length;
+    }
+
+    /** Return the index record number of the object with ID, or -1 if it
+     *  is not packed. */
+    private int find(String id) {
+        byte[] key = key(id);
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareKey(recordStart(mid), key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                int pos = (int) _index.getLong(recordStart(mid) + KEY_SIZE);
+                return idAt(pos).equals(id) ? mid : -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the key of the index record at START to KEY as unsigned
+     *  bytes. */
+    private int compareKey(int start, byte[] key) {
+        for (int k = 0; k < KEY_SIZE; k += 1) {
+            int cmp = Integer.compare(_index.get(start + k) & 0xff,
+                    key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the byte offset of index record I. */
+    private static int recordStart(int i) {
+        return HEADER_SIZE + i * RECORD_SIZE;
+    }
+
+    /** Return the raw SHA-1 of ID, the key it is indexed by. */
+    static byte[] key(String id) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(
+                    id.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+
+    /** Return FILE mapped read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An index record of an object being packed. */
+    private static class Entry implements Comparable<Entry> {
+        /** Raw SHA-1 of the object's ID. */
+        private final byte[] _key;
+        /** Offset of the object's entry in the data file. */
+        private final long _offset;
+        /** Length of the object's contents once rebuilt. */
+        private final int _length;
+
+        /** An entry for an object with KEY whose data entry begins at
+         *  OFFSET and has contents of LENGTH bytes. */
+        Entry(byte[] key, long offset, int length) {
+            _key = key;
+            _offset = offset;
+            _length = length;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Arrays.compareUnsigned(_key, other._key);
+        }
+    }
+
+    /** A recently packed blob that later versions of the same file may
+     *  be stored as deltas against. */
+    private static class Base {
+        /** Contents of the blob. */
+        private final byte[] _contents;
+        /** Offset of the blob's entry in the new data file. */
+        private final long _offset;
+        /** Number of deltas applied to rebuild the blob. */
+        private final int _depth;
+
+        /** A base with CONTENTS written at OFFSET and delta chain DEPTH. */
+        Base(byte[] contents, long offset, int depth) {
+            _contents = contents;
+            _offset = offset;
+            _depth = depth;
+        }
+    }
+
+    /** Consolidate every object, loose or already packed, into a new pack
+     *  that replaces the current one, then delete the loose copies.
+     *  Versions of the same file, found through the names commits track
+     *  them under, are packed largest first, each stored as
+     *  a delta against whichever of the previous WINDOW versions gives the
+     *  smallest delta, provided that is under half its size and the base's
+     *  chain is shorter than MAX_DELTA_DEPTH. */
+    static void repack() {
+        repack(Collections.emptySet());
+    }
+
+    /** Repack as above, leaving out and deleting the objects in DROPPED. */
+    static void repack(Set<String> dropped) {
+        List<String> ids = ObjectStore.listIds();
+        ids.removeAll(dropped);
+        HashMap<String, ArrayList<String>> groups = new HashMap<>();
+        ArrayList<String> order = new ArrayList<>(ids.size());
+        HashMap<String, String> hints = fileNameHints(ids);
+        for (String id : ids) {
+            if (isCommitId(id)) {
+                order.add(id);
+            } else {
+                String name = id.length() > UID_LENGTH ? getBlobFileName(id)
+                        : hints.getOrDefault(id, "");
+                groups.computeIfAbsent(name, k -> new ArrayList<>()).add(id);
+            }
+        }
+        ArrayList<String> names = new ArrayList<>(groups.keySet());
+        Collections.sort(names);
+        PACK_DIR.mkdir();
+        File tmpPack = join(PACK_DIR, "pack.dat.tmp");
+        ArrayList<Entry> entries = new ArrayList<>(ids.size());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tmpPack.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            for (String id : order) {
+                writeEntry(out, entries, id, ObjectStore.read(id), null, 0);
+            }
+            for (String name : names) {
+                ArrayList<String> group = groups.get(name);
+                group.sort(Comparator.comparingLong(Pack::sizeOf)
+                        .reversed());
+                ArrayDeque<Base> window = new ArrayDeque<>();
+                for (String id : group) {
+                    byte[] contents = ObjectStore.read(id);
+                    Base base = null;
+                    byte[] delta = null;
+                    for (Base candidate : window) {
+                        if (candidate._depth >= MAX_DELTA_DEPTH) {
+                            continue;
+                        }
+                        byte[] d = Delta.create(candidate._contents,
+                                contents);
+                        if (d.length < contents.length / 2
+                                && (delta == null || d.length < delta.length)) {
+                            base = candidate;
+                            delta = d;
+                        }
+                    }
+                    long offset = out.size();
+                    writeEntry(out, entries, id, contents,
+                            base == null ? null : delta,
+                            base == null ? 0 : base._offset);
+                    window.addFirst(new Base(contents, offset,
+                            base == null ? 0 : base._depth + 1));
+                    if (window.size() > WINDOW) {
+                        window.removeLast();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            tmpPack.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (GitletException excp) {
+            tmpPack.delete();
+            throw excp;
+        }
+        Collections.sort(entries);
+        ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE
+                + entries.size() * RECORD_SIZE);
+        index.putInt(INDEX_MAGIC).putInt(VERSION).putInt(entries.size());
+        for (Entry entry : entries) {
+            index.put(entry._key).putLong(entry._offset).putInt(entry._length);
+        }
+        String name = NAME_PREFIX + sha1(index.array());
+        Durability.commit(tmpPack, join(PACK_DIR, name + DATA_SUFFIX));
+        writeContents(join(PACK_DIR, name + INDEX_SUFFIX), index.array());
+        Durability.barrier();
+        writeContents(CURRENT_FILE, name);
+        Durability.barrier();
+        reset();
+        deleteOtherPacks(name);
+        ObjectStore.deleteLoose(ids);
+        ObjectStore.deleteLoose(new ArrayList<>(dropped));
+    }
+
+    /** Delete the files of every pack but the one named NAME. */
+    private static void deleteOtherPacks(String name) {
+        List<String> files = plainFilenamesIn(PACK_DIR);
+        if (files == null) {
+            return;
+        }
+        for (String file : files) {
+            if (file.startsWith(NAME_PREFIX)
+                    && !file.equals(name + DATA_SUFFIX)
+                    && !file.equals(name + INDEX_SUFFIX)) {
+                File old = join(PACK_DIR, file);
+                old.delete();
+                Durability.written(old);
+            }
+        }
+    }
+
+    /** Return a map from the ID of each contents object to a file name
+     *  standing for the files it is tracked under by the commits among IDS
+     *  or by the staging area, used to pick delta bases among versions of
+     *  the same file. File names sharing some contents, such as the two
+     *  sides of a rename, are represented by the same name. */
+    private static HashMap<String, String> fileNameHints(List<String> ids) {
+        ArrayList<String> entries = new ArrayList<>(Arrays.asList(
+                readFileLinesAsArray(ADD_STAGE_FILE)));
+        for (String id : ids) {
+            if (isCommitId(id)) {
+                entries.addAll(Arrays.asList(
+                        getCommit(id.substring(5)).getBlobIDArray()));
+            }
+        }
+        HashMap<String, String> firstName = new HashMap<>();
+        HashMap<String, String> sameFile = new HashMap<>();
+        for (String entry : entries) {
+            String name = getBlobFileName(entry);
+            String other = firstName.putIfAbsent(getBlobContentId(entry),
+                    name);
+            if (other != null) {
+                String root = representative(sameFile, name);
+                String otherRoot = representative(sameFile, other);
+                if (!root.equals(otherRoot)) {
+                    sameFile.put(root, otherRoot);
+                }
+            }
+        }
+        HashMap<String, String> hints = new HashMap<>();
+        for (String contentId : firstName.keySet()) {
+            hints.put(contentId, representative(sameFile,
+                    firstName.get(contentId)));
+        }
+        return hints;
+    }
+
+    /** Return the name representing NAME in the union-find forest
+     *  SAMEFILE, mapping each name to another of the same file. */
+    private static String representative(HashMap<String, String> sameFile,
+                                         String name) {
+        while (sameFile.containsKey(name)) {
+            name = sameFile.get(name);
+        }
+        return name;
+    }
+
+    /** Write the object with ID and CONTENTS to OUT, recording its index
+     *  entry in ENTRIES. If DELTA is not null, store DELTA against the
+     *  entry at BASEOFFSET instead of CONTENTS. It is an error for the
+     *  data file to grow past MAX_PACK_SIZE. */
+    private static void writeEntry(DataOutputStream out,
+                                   ArrayList<Entry> entries, String id,
+                                   byte[] contents, byte[] delta,
+                                   long baseOffset) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        long size = 4 + idBytes.length + 1
+                + (delta == null ? 4 + contents.length : 12 + delta.length);
+        if (out.size() + size > MAX_PACK_SIZE) {
+            throw error("Objects too large to pack: a pack holds at most"
+                    + " 2 GiB.");
+        }
+        entries.add(new Entry(key(id), out.size(), contents.length));
+        out.writeInt(idBytes.length);
+        out.write(idBytes);
+        if (delta == null) {
+            out.writeByte(WHOLE);
+            out.writeInt(contents.length);
+            out.write(contents);
+        } else {
+            out.writeByte(DELTA);
+            out.writeLong(baseOffset);
+            out.writeInt(delta.length);
+            out.write(delta);
+        }
+    }
+
+    /** Return the size of the object with ID without reading it. */
+    private static long sizeOf(String id) {
+        File file = ObjectStore.objectFile(id);
+        if (file.isFile()) {
+            return file.length();
+        }
+        Pack pack = current();
+        int i = pack.find(id);
+        return pack._index.getInt(recordStart(i) + KEY_SIZE + 8);
+    }
+}
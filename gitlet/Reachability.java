@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Reachability bitmaps: for selected commits, the set of positions in
+ *  the commit graph (see CommitGraph) of every commit reachable from
+ *  them, kept as a compressed Bitmap. Every INTERVAL-th commit made gets
+ *  one, as do the branch heads whenever gc runs. A walk through history
+ *  stops at the first commit with a bitmap and takes in the whole bitmap
+ *  at once, so asking whether one commit is an ancestor of another, or
+ *  which commits the branches reach, visits at most about INTERVAL
+ *  commits per branch of history.
+ *
+ *  .gitlet/reachability is a header [MAGIC][VERSION] followed by records
+ *  [KEY][POSITION][LENGTH][BITMAP], where KEY is the raw SHA-1 of the
+ *  commit at POSITION and BITMAP is LENGTH bytes encoded by Bitmap. It is
+ *  deleted whenever the commit graph is rebuilt, since positions change.
+ *  @author Thu Nguyen
+ */
+class Reachability {
+    /** The bitmap file. */
+    static final File BITMAP_FILE = join(DOT_GITLET_DIR.toString(),
+            "reachability");
+    /** Magic number beginning the file. */
+    static final int MAGIC = 0x52424d50;
+    /** Format version of the file. */
+    static final int VERSION = 1;
+    /** Size of the header: magic and version. */
+    static final int HEADER_SIZE = 8;
+    /** Size of a raw SHA-1 key. */
+    static final int KEY_SIZE = 20;
+    /** One in this many commits made gets a bitmap. */
+    static final int INTERVAL = 64;
+
+    /** Bitmaps read or written so far, by commit position; null if the
+     *  file is not read yet. */
+    private static HashMap<Integer, Bitmap> _bitmaps;
+    /** Length of the complete records in the file, as last read. */
+    private static long _length;
+
+    /** Give the newly made commit with UID a bitmap if it is an
+     *  INTERVAL-th commit. */
+    static void add(String uid) {
+        CommitGraph graph = CommitGraph.including(Arrays.asList(uid));
+        int pos = graph.positionOf(uid);
+        if (pos % INTERVAL == INTERVAL - 1) {
+            write(graph, pos);
+        }
+    }
+
+    /** Give the commits with UIDS, such as the branch heads, bitmaps if
+     *  they have none. */
+    static void select(Iterable<String> uids) {
+        CommitGraph graph = CommitGraph.including(uids);
+        for (String uid : uids) {
+            if (!bitmaps(graph).containsKey(graph.positionOf(uid))) {
+                write(graph, graph.positionOf(uid));
+            }
+        }
+    }
+
+    /** Delete the bitmaps, whose positions no longer match the commit
+     *  graph. */
+    static void invalidate() {
+        _bitmaps = null;
+        if (BITMAP_FILE.delete()) {
+            Durability.written(BITMAP_FILE);
+        }
+    }
+
+    /** Return whether the commit with UID ANCESTOR is the commit with UID
+     *  or one of its ancestors. Only commits of at least ANCESTOR's
+     *  generation and without bitmaps are visited. */
+    static boolean isAncestor(String ancestor, String uid) {
+        CommitGraph graph = CommitGraph.including(
+                Arrays.asList(ancestor, uid));
+        int target = graph.positionOf(ancestor);
+        int generation = graph.generationAt(target);
+        HashMap<Integer, Bitmap> bitmaps = bitmaps(graph);
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(graph.positionOf(uid));
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            Bitmap bitmap = bitmaps.get(pos);
+            if (pos == target || (bitmap != null && bitmap.contains(target))) {
+                return true;
+            } else if (bitmap != null) {
+                continue;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = graph.parentAt(i, pos);
+                if (parent != CommitGraph.NONE
+                        && graph.generationAt(parent) >= generation
+                        && seen.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the UIDs of the commits with UIDS and all their
+     *  ancestors. */
+    static Set<String> reachable(Iterable<String> uids) {
+        CommitGraph graph = CommitGraph.including(uids);
+        Bitmap reached = new Bitmap();
+        for (String uid : uids) {
+            close(graph, graph.positionOf(uid), reached);
+        }
+        HashSet<String> result = new HashSet<>();
+        reached.forEach(pos -> result.add(graph.uidAt(pos)));
+        return result;
+    }
+
+    /** Add the position of the commit at POS in GRAPH, and of all its
+     *  ancestors, to REACHED, taking in stored bitmaps whole. */
+    private static void close(CommitGraph graph, int pos, Bitmap reached) {
+        HashMap<Integer, Bitmap> bitmaps = bitmaps(graph);
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(pos);
+        while (!stack.isEmpty()) {
+            int next = stack.pop();
+            if (reached.contains(next)) {
+                continue;
+            } else if (bitmaps.containsKey(next)) {
+                reached.or(bitmaps.get(next));
+                continue;
+            }
+            reached.add(next);
+            for (int i = 0; i < 2; i += 1) {
+                int parent = graph.parentAt(i, next);
+                if (parent != CommitGraph.NONE && !reached.contains(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+    }
+
+    /** Compute the bitmap of the commit at POS in GRAPH and append it to
+     *  the file. */
+    private static void write(CommitGraph graph, int pos) {
+        Bitmap bitmap = new Bitmap();
+        close(graph, pos, bitmap);
+        byte[] encoded = bitmap.encode();
+        HashMap<Integer, Bitmap> bitmaps = bitmaps(graph);
+        if (BITMAP_FILE.length() > _length) {
+            try (FileChannel out = FileChannel.open(BITMAP_FILE.toPath(),
+                    StandardOpenOption.WRITE)) {
+                out.truncate(_length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(
+                (_length == 0 ? HEADER_SIZE : 0) + KEY_SIZE + 8
+                + encoded.length);
+        if (_length == 0) {
+            record.putInt(MAGIC).putInt(VERSION);
+        }
+        record.put(key(graph.uidAt(pos))).putInt(pos).putInt(encoded.length)
+                .put(encoded).flip();
+        try (FileChannel out = FileChannel.open(BITMAP_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(BITMAP_FILE);
+        _length = BITMAP_FILE.length();
+        bitmaps.put(pos, bitmap);
+    }
+
+    /** Return the stored bitmaps, by position in GRAPH, reading the file
+     *  on first use. A record cut short by an interrupted append is
+     *  ignored; a file that does not match GRAPH is deleted. */
+    private static HashMap<Integer, Bitmap> bitmaps(CommitGraph graph) {
+        if (_bitmaps != null) {
+            return _bitmaps;
+        }
+        _bitmaps = new HashMap<>();
+        _length = 0;
+        if (!BITMAP_FILE.isFile()) {
+            return _bitmaps;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(BITMAP_FILE));
+        boolean valid = in.remaining() >= HEADER_SIZE
+                && in.getInt() == MAGIC && in.getInt() == VERSION;
+        _length = valid ? HEADER_SIZE : 0;
+        byte[] key = new byte[KEY_SIZE];
+        while (valid && in.remaining() >= KEY_SIZE + 8) {
+            in.get(key);
+            int pos = in.getInt();
+            int length = in.getInt();
+            if (length > in.remaining()) {
+                break;
+            }
+            valid = graph.positionOf(ObjectStore.toHex(key)) != null
+                    && graph.positionOf(ObjectStore.toHex(key)) == pos;
+            ByteBuffer encoded = in.slice(in.position(), length);
+            in.position(in.position() + length);
+            if (valid) {
+                _bitmaps.put(pos, Bitmap.decode(encoded));
+                _length = in.position();
+            }
+        }
+        if (!valid) {
+            invalidate();
+            _bitmaps = new HashMap<>();
+            _length = 0;
+        }
+        return _bitmaps;
+    }
+
+    /** Return the raw bytes of the hexadecimal UID. */
+    private static byte[] key(String uid) {
+        byte[] key = new byte[KEY_SIZE];
+        for (int i = 0; i < KEY_SIZE; i += 1) {
+            key[i] = (byte) Integer.parseInt(uid.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Branch heads and the current branch. Each branch's head UID is kept in
+ *  its own file, .gitlet/refs/[NAME] with NAME URL-encoded, so looking up
+ *  or moving one branch reads or atomically replaces one small file
+ *  however many branches there are. Heads and the current branch are
+ *  cached once read, for the rest of the command. Repositories that keep
+ *  every branch in branch_head.txt are migrated on their next command.
+ *  @author Thu Nguyen
+ */
+class Refs {
+    /** Directory of the branch files. */
+    static final File REFS_DIR = join(DOT_GITLET_DIR.toString(), "refs");
+
+    /** Heads read or written so far, by branch; null for a branch known
+     *  not to exist. */
+    private static final HashMap<String, String> HEADS = new HashMap<>();
+    /** Whether HEADS holds every branch. */
+    private static boolean _complete;
+    /** Name of the current branch, or null if not read yet. */
+    private static String _current;
+
+    /** Return the head UID of BRANCH, or null if it does not exist. */
+    static String get(String branch) {
+        if (!HEADS.containsKey(branch) && !_complete) {
+            File file = fileOf(branch);
+            HEADS.put(branch, file.isFile()
+                    ? readContentsAsString(file).trim() : null);
+        }
+        return HEADS.get(branch);
+    }
+
+    /** Point BRANCH, created if need be, at the commit with UID. */
+    static void update(String branch, String uid) {
+        REFS_DIR.mkdir();
+        writeContents(fileOf(branch), uid + "\n");
+        HEADS.put(branch, uid);
+    }
+
+    /** Delete BRANCH. */
+    static void delete(String branch) {
+        File file = fileOf(branch);
+        if (file.delete()) {
+            Durability.written(file);
+        }
+        HEADS.put(branch, null);
+    }
+
+    /** Return a map from every branch to its head UID, sorted by name. */
+    static Map<String, String> heads() {
+        if (!_complete) {
+            File[] files = REFS_DIR.listFiles(file -> file.isFile()
+                    && !file.getName().startsWith("."));
+            HEADS.clear();
+            if (files != null) {
+                for (File file : files) {
+                    HEADS.put(decode(file.getName()),
+                            readContentsAsString(file).trim());
+                }
+            }
+            _complete = true;
+        }
+        TreeMap<String, String> heads = new TreeMap<>();
+        for (Map.Entry<String, String> head : HEADS.entrySet()) {
+            if (head.getValue() != null) {
+                heads.put(head.getKey(), head.getValue());
+            }
+        }
+        return heads;
+    }
+
+    /** Return the names of every branch, sorted. */
+    static List<String> branches() {
+        return Collections.unmodifiableList(new ArrayList<>(
+                heads().keySet()));
+    }
+
+    /** Return the name of the current branch. */
+    static String current() {
+        if (_current == null) {
+            _current = readContentsAsString(CURRENT_BRANCH);
+        }
+        return _current;
+    }
+
+    /** Make BRANCH the current branch. */
+    static void setCurrent(String branch) {
+        writeContents(CURRENT_BRANCH, branch);
+        _current = branch;
+    }
+
+    /** Move the branches of a repository made before refs were kept one
+     *  per file from branch_head.txt into REFS_DIR. The old file is deleted
+     *  once every branch file is on disk, so an interrupted migration is
+     *  simply redone. */
+    static void migrate() {
+        if (!BRANCH_HEAD_FILE.isFile()) {
+            return;
+        }
+        for (String line : readFileLinesAsArray(BRANCH_HEAD_FILE)) {
+            String[] branchAndHead = line.split(":");
+            if (branchAndHead.length == 2) {
+                update(branchAndHead[0], branchAndHead[1]);
+            }
+        }
+        Durability.barrier();
+        BRANCH_HEAD_FILE.delete();
+        Durability.written(BRANCH_HEAD_FILE);
+    }
+
+    /** Return the file holding BRANCH's head. */
+    private static File fileOf(String branch) {
+        return join(REFS_DIR, encode(branch));
+    }
+
+    /** Return BRANCH encoded as a file name: URL-encoded, with a leading
+     *  "." escaped so that no branch is hidden, "." or "..". */
+    private static String encode(String branch) {
+        String name = URLEncoder.encode(branch, StandardCharsets.UTF_8);
+        return name.startsWith(".") ? "%2E" + name.substring(1) : name;
+    }
+
+    /** Return the branch whose file is named NAME. */
+    private static String decode(String name) {
+        return URLDecoder.decode(name, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Cache of the contents UIDs of working files, so that files whose
+ *  size, modification time, change time and inode are as they were when
+ *  last hashed are not read again. .gitlet/stat-cache is a header
+ *  [MAGIC][VERSION][COUNT] followed by one entry per file, sorted by name:
+ *  [NAME][SIZE][MTIME][CTIME][INODE][CONTENT UID], with the name as its
+ *  UTF-8 length and bytes, times in nanoseconds and the UID as its raw
+ *  20 bytes. A file modified less than RACY_WINDOW before it was hashed
+ *  could be modified again without its stat data changing, so it is not
+ *  cached until it is hashed again later. Many files are hashed at once
+ *  by a bounded pool of parallelism() workers; the cache may be used from
+ *  all of them.
+ *  @author Thu Nguyen
+ */
+class StatCache {
+    /** The cache file. */
+    static final File CACHE_FILE = join(DOT_GITLET_DIR.toString(),
+            "stat-cache");
+    /** Magic number beginning the file. */
+    static final int MAGIC = 0x53544154;
+    /** Format version of the file. */
+    static final int VERSION = 1;
+    /** Size of a raw SHA-1 UID. */
+    static final int KEY_SIZE = 20;
+    /** Files modified less than this many milliseconds before being hashed
+     *  are not cached. It exceeds the coarsest time stamp granularity of
+     *  common file systems. */
+    static final long RACY_WINDOW = 2000;
+    /** Number of file names waiting for a hashing worker at most. */
+    static final int QUEUE_SIZE = 1024;
+
+    /** Stat data and contents UID of one file. */
+    private static class Entry {
+        /** [SIZE, MTIME, CTIME, INODE] of the file. */
+        private final long[] _stat;
+        /** UID of its contents. */
+        private final String _uid;
+
+        /** An entry for a file with STAT whose contents have UID. */
+        Entry(long[] stat, String uid) {
+            _stat = stat;
+            _uid = uid;
+        }
+    }
+
+    /** Entries by file name, read on first use. */
+    private static TreeMap<String, Entry> _entries;
+    /** Whether the entries changed since they were read. */
+    private static boolean _dirty;
+
+    /** Return the UID of the contents of the working FILE named NAME,
+     *  hashing it only if it is not cached or changed since. */
+    static String hash(String name, File file) {
+        String uid = cached(name, file);
+        if (uid == null) {
+            long[] stat = stat(file);
+            uid = sha1(file);
+            record(name, file, stat, uid);
+        }
+        return uid;
+    }
+
+    /** Return a map from each of NAMES, working files that exist, to the
+     *  UID of its contents. Files that are not cached are read and hashed
+     *  by parallelism() workers at once. */
+    static Map<String, String> hashAll(List<String> names) {
+        ConcurrentHashMap<String, String> uids = new ConcurrentHashMap<>();
+        int workers = parallelism();
+        if (workers <= 1 || names.size() <= 1) {
+            for (String name : names) {
+                uids.put(name, known(name));
+            }
+            return uids;
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers,
+                0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        ConcurrentHashMap<String, RuntimeException> failures =
+            new ConcurrentHashMap<>();
+        try {
+            for (String name : names) {
+                pool.execute(() -> {
+                    try {
+                        uids.put(name, known(name));
+                    } catch (RuntimeException excp) {
+                        failures.put(name, excp);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!failures.isEmpty()) {
+            throw failures.values().iterator().next();
+        }
+        return new HashMap<>(uids);
+    }
+
+    /** Return the UID of the contents of the working file NAME, taking a
+     *  cached UID without a stat when a running watcher vouches that the
+     *  file has not changed since (see Watcher). */
+    private static String known(String name) {
+        if (Watcher.trusted()) {
+            Entry entry = entry(name);
+            if (entry != null) {
+                return entry._uid;
+            }
+        }
+        return hash(name, join(WORK_DIR_STR, name));
+    }
+
+    /** Return the number of files hashed at once: the value of the system
+     *  property gitlet.threads if it is a positive number, else the number
+     *  of cores. */
+    static int parallelism() {
+        int threads = Integer.getInteger("gitlet.threads", 0);
+        return threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Return the cached UID of the contents of the working FILE named
+     *  NAME, or null if it is not cached or has changed since. */
+    static String cached(String name, File file) {
+        Entry entry = entry(name);
+        if (entry == null) {
+            return null;
+        }
+        long[] stat = stat(file);
+        return stat != null && Arrays.equals(stat, entry._stat)
+                ? entry._uid : null;
+    }
+
+    /** Record that the working FILE named NAME, as it was when STAT was
+     *  taken before it was read, has contents with UID. */
+    static void record(String name, File file, long[] stat, String uid) {
+        if (stat != null && Arrays.equals(stat, stat(file))) {
+            record(name, stat, uid);
+        }
+    }
+
+    /** Record that the file named NAME with STAT has contents with UID,
+     *  unless it was modified too recently to be trusted. */
+    private static synchronized void record(String name, long[] stat,
+                                            String uid) {
+        TreeMap<String, Entry> entries = entries();
+        if (stat == null || TimeUnit.NANOSECONDS.toMillis(stat[1])
+                > System.currentTimeMillis() - RACY_WINDOW) {
+            _dirty |= entries.remove(name) != null;
+            return;
+        }
+        entries.put(name, new Entry(stat, uid));
+        _dirty = true;
+    }
+
+    /** Drop the entry of the file named NAME, if any. */
+    static synchronized void forget(String name) {
+        _dirty |= entries().remove(name) != null;
+    }
+
+    /** Drop the entries of files not among NAMES, the working files, and
+     *  of those whose stat data changed since they were cached. */
+    static synchronized void validate(List<String> names) {
+        HashSet<String> present = new HashSet<>(names);
+        Iterator<Map.Entry<String, Entry>> entries =
+            entries().entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Entry> entry = entries.next();
+            if (!present.contains(entry.getKey())
+                    || !Arrays.equals(entry.getValue()._stat,
+                            stat(join(WORK_DIR_STR, entry.getKey())))) {
+                entries.remove();
+                _dirty = true;
+            }
+        }
+    }
+
+    /** Write out the cache if it changed, leaving out files that no longer
+     *  exist. */
+    static synchronized void save() {
+        if (!_dirty || !DOT_GITLET_DIR.toFile().isDirectory()) {
+            return;
+        }
+        ArrayList<byte[]> names = new ArrayList<>();
+        ArrayList<Entry> kept = new ArrayList<>();
+        int size = 12;
+        for (Map.Entry<String, Entry> entry : entries().entrySet()) {
+            if (join(WORK_DIR_STR, entry.getKey()).isFile()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                kept.add(entry.getValue());
+                size += 4 + name.length + 32 + KEY_SIZE;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(kept.size());
+        for (int i = 0; i < kept.size(); i += 1) {
+            out.putInt(names.get(i).length).put(names.get(i));
+            for (long value : kept.get(i)._stat) {
+                out.putLong(value);
+            }
+            String uid = kept.get(i)._uid;
+            for (int k = 0; k < KEY_SIZE; k += 1) {
+                out.put((byte) Integer.parseInt(
+                        uid.substring(2 * k, 2 * k + 2), 16));
+            }
+        }
+        writeContents(CACHE_FILE, out.array());
+        _dirty = false;
+    }
+
+    /** Return the stat data [SIZE, MTIME, CTIME, INODE] of FILE, or null
+     *  if it cannot be read. Where the file system has no change time or
+     *  inode, those are 0. */
+    static long[] stat(File file) {
+        try {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(
+                        file.toPath(), "unix:size,lastModifiedTime,ctime,ino",
+                        LinkOption.NOFOLLOW_LINKS);
+                return new long[] {(Long) attrs.get("size"),
+                    nanos((FileTime) attrs.get("lastModifiedTime")),
+                    nanos((FileTime) attrs.get("ctime")),
+                    (Long) attrs.get("ino")};
+            } catch (UnsupportedOperationException
+                     | IllegalArgumentException excp) {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                return new long[] {attrs.size(),
+                    nanos(attrs.lastModifiedTime()), 0, 0};
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return TIME in nanoseconds since the epoch. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Return the entry of the file named NAME, or null. */
+    private static synchronized Entry entry(String name) {
+        return entries().get(name);
+    }
+
+    /** Return the entries, reading the file on first use. A file that is
+     *  not a stat cache is ignored. */
+    private static synchronized TreeMap<String, Entry> entries() {
+        if (_entries != null) {
+            return _entries;
+        }
+        _entries = new TreeMap<>();
+        if (!CACHE_FILE.isFile()) {
+            return _entries;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(CACHE_FILE));
+        if (in.remaining() < 12 || in.getInt() != MAGIC
+                || in.getInt() != VERSION) {
+            return _entries;
+        }
+        byte[] key = new byte[KEY_SIZE];
+        for (int count = in.getInt(); count > 0; count -= 1) {
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+            long[] stat = {in.getLong(), in.getLong(), in.getLong(),
+                in.getLong()};
+            in.get(key);
+            _entries.put(new String(name, StandardCharsets.UTF_8),
+                    new Entry(stat, ObjectStore.toHex(key)));
+        }
+        return _entries;
+    }
+}
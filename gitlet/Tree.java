@@ -0,0 +1,327 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Blob.getBlobContentId;
+import static gitlet.Blob.getBlobFileName;
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+
+/** Directories of tracked files. A tree lists the entries of one
+ *  directory, sorted by name: each is either a file, with the UID of its
+ *  contents, or a subdirectory, with the UID of its own tree. A tree's ID
+ *  is "tree_" followed by the SHA-1 of its encoding, so a directory whose
+ *  files are unchanged keeps its ID and is stored once, however many
+ *  commits share it, and two trees with the same ID need not be compared
+ *  entry by entry. File paths are split into directories at "/". The
+ *  encoding begins with the offset of every entry, so one name is looked
+ *  up by binary search, decoding only the entries compared against.
+ *  @author Thu Nguyen
+ */
+class Tree {
+    /** Beginning of every tree ID. */
+    static final String PREFIX = "tree_";
+    /** Version byte beginning every encoded tree. */
+    static final int FORMAT_VERSION = 2;
+    /** Size of the header of a tree: version and number of entries. */
+    static final int HEADER_SIZE = 5;
+    /** Kind byte of a file entry. */
+    static final byte FILE = 'f';
+    /** Kind byte of a subdirectory entry. */
+    static final byte DIRECTORY = 'd';
+
+    /** One entry of a tree. */
+    static class Entry {
+        /** Name of the entry within its directory. */
+        private final String _name;
+        /** UID of the contents of a file, or of the tree of a
+         *  subdirectory. */
+        private final String _uid;
+        /** Whether the entry is a subdirectory. */
+        private final boolean _directory;
+
+        /** An entry NAME with UID, a subdirectory if DIRECTORY. */
+        Entry(String name, String uid, boolean directory) {
+            _name = name;
+            _uid = uid;
+            _directory = directory;
+        }
+
+        /** Return the entry's name within its directory. */
+        String getName() {
+            return _name;
+        }
+
+        /** Return the UID of the entry's contents or tree. */
+        String getUID() {
+            return _uid;
+        }
+
+        /** Return whether the entry is a subdirectory. */
+        boolean isDirectory() {
+            return _directory;
+        }
+    }
+
+    /** Return whether ID is the ID of a tree. */
+    static boolean isTreeId(String id) {
+        return id.startsWith(PREFIX)
+                && id.length() == PREFIX.length() + UID_LENGTH;
+    }
+
+    /** Write out the trees of the files tracked by BLOBIDS, each of the
+     *  form [PATH][CONTENT UID], and return the UID of the root tree.
+     *  Trees already stored are not written again. */
+    static String write(String[] blobIds) {
+        TreeMap<String, Object> root = new TreeMap<>();
+        for (String blobId : blobIds) {
+            String[] path = getBlobFileName(blobId).split("/");
+            TreeMap<String, Object> dir = root;
+            for (int i = 0; i < path.length - 1; i += 1) {
+                Object sub = dir.computeIfAbsent(path[i],
+                        k -> new TreeMap<String, Object>());
+                if (!(sub instanceof TreeMap)) {
+                    throw error("File %s is also a directory.", path[i]);
+                }
+                @SuppressWarnings("unchecked")
+                TreeMap<String, Object> next = (TreeMap<String, Object>) sub;
+                dir = next;
+            }
+            String name = path[path.length - 1];
+            if (dir.put(name, getBlobContentId(blobId)) instanceof TreeMap) {
+                throw error("File %s is also a directory.", name);
+            }
+        }
+        return write(root);
+    }
+
+    /** Write out the tree of DIR, a map from each entry name to the
+     *  contents UID of a file or the map of a subdirectory, and its
+     *  subtrees; return its UID. */
+    private static String write(TreeMap<String, Object> dir) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : dir.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                entries.add(new Entry(entry.getKey(),
+                        (String) entry.getValue(), false));
+            } else {
+                @SuppressWarnings("unchecked")
+                TreeMap<String, Object> sub =
+                        (TreeMap<String, Object>) entry.getValue();
+                entries.add(new Entry(entry.getKey(), write(sub), true));
+            }
+        }
+        byte[] encoded = encode(entries);
+        String uid = sha1(encoded);
+        if (!ObjectStore.exists(PREFIX + uid)) {
+            ObjectStore.write(PREFIX + uid, encoded);
+        }
+        return uid;
+    }
+
+    /** Return the encoding of ENTRIES: FORMAT_VERSION, the number of
+     *  entries, the offset of each entry from the start of the encoding,
+     *  and then each entry's kind, name and UID. Strings are written as
+     *  their UTF-8 length followed by their bytes. */
+    private static byte[] encode(List<Entry> entries) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int[] offsets = new int[entries.size()];
+        int start = HEADER_SIZE + 4 * entries.size();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            for (int i = 0; i < offsets.length; i += 1) {
+                Entry entry = entries.get(i);
+                offsets[i] = start + out.size();
+                out.writeByte(entry._directory ? DIRECTORY : FILE);
+                writeString(out, entry._name);
+                writeString(out, entry._uid);
+            }
+        } catch (IOException excp) {
+            throw error("Internal error serializing tree.");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(start + body.size());
+        bytes.put((byte) FORMAT_VERSION).putInt(offsets.length);
+        for (int offset : offsets) {
+            bytes.putInt(offset);
+        }
+        bytes.put(body.toByteArray());
+        return bytes.array();
+    }
+
+    /** Return the entries of the tree with UID, sorted by name. */
+    static List<Entry> read(String uid) {
+        byte[] bytes = load(uid);
+        ArrayList<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            in.readByte();
+            int count = in.readInt();
+            in.skipBytes(4 * count);
+            for (int i = 0; i < count; i += 1) {
+                entries.add(readEntry(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return entries;
+    }
+
+    /** Return the ID, [PATH][CONTENT UID], of the file at PATH under the
+     *  tree with UID, or null if there is none. Each directory on the way
+     *  is searched by binary search over its entry offsets. */
+    static String find(String uid, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length && uid != null; i += 1) {
+            Entry entry = lookup(uid, names[i]);
+            if (entry == null
+                    || entry._directory != (i < names.length - 1)) {
+                return null;
+            } else if (!entry._directory) {
+                return path + entry._uid;
+            }
+            uid = entry._uid;
+        }
+        return null;
+    }
+
+    /** Return the entry NAME of the tree with UID, or null if it has
+     *  none. */
+    private static Entry lookup(String uid, String name) {
+        byte[] bytes = load(uid);
+        ByteBuffer offsets = ByteBuffer.wrap(bytes);
+        int lo = 0, hi = offsets.getInt(1) - 1;
+        try {
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int offset = offsets.getInt(HEADER_SIZE + 4 * mid);
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(bytes, offset,
+                                bytes.length - offset));
+                Entry entry = readEntry(in);
+                int cmp = entry._name.compareTo(name);
+                if (cmp == 0) {
+                    return entry;
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return null;
+    }
+
+    /** Return the encoding of the tree with UID. */
+    private static byte[] load(String uid) {
+        byte[] bytes = ObjectStore.read(PREFIX + uid);
+        if (bytes == null) {
+            throw new IllegalArgumentException("missing tree " + uid);
+        } else if (bytes.length < HEADER_SIZE
+                || bytes[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unknown tree format");
+        }
+        return bytes;
+    }
+
+    /** Return the entry written to IN by encode. */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        boolean directory = in.readByte() == DIRECTORY;
+        String name = readString(in);
+        return new Entry(name, readString(in), directory);
+    }
+
+    /** Return the IDs, [PATH][CONTENT UID], of every file under the tree
+     *  with UID, sorted by path. */
+    static String[] blobIds(String uid) {
+        ArrayList<String> blobIds = new ArrayList<>();
+        collect(uid, "", blobIds);
+        return blobIds.toArray(new String[0]);
+    }
+
+    /** Add the IDs of the files under the tree with UID, whose paths
+     *  begin with PREFIX, to BLOBIDS. */
+    private static void collect(String uid, String prefix,
+                                List<String> blobIds) {
+        for (Entry entry : read(uid)) {
+            if (entry._directory) {
+                collect(entry._uid, prefix + entry._name + "/", blobIds);
+            } else {
+                blobIds.add(prefix + entry._name + entry._uid);
+            }
+        }
+    }
+
+    /** Return the paths of the files that differ between the trees with
+     *  UIDs FROM and TO: added, removed or with other contents. Subtrees
+     *  with the same UID are skipped without being read. */
+    static TreeSet<String> changedPaths(String from, String to) {
+        TreeSet<String> changed = new TreeSet<>();
+        diff(from, to, "", changed);
+        return changed;
+    }
+
+    /** Add the paths, beginning with PREFIX, of the files that differ
+     *  between the trees with UIDs FROM and TO to CHANGED. Either UID may
+     *  be null for a directory that does not exist. */
+    private static void diff(String from, String to, String prefix,
+                             TreeSet<String> changed) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        TreeMap<String, Entry> before = entriesByName(from);
+        TreeMap<String, Entry> after = entriesByName(to);
+        TreeSet<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            Entry x = before.get(name), y = after.get(name);
+            String path = prefix + name;
+            diff(x != null && x._directory ? x._uid : null,
+                    y != null && y._directory ? y._uid : null,
+                    path + "/", changed);
+            String xFile = x != null && !x._directory ? x._uid : null;
+            String yFile = y != null && !y._directory ? y._uid : null;
+            if (xFile == null ? yFile != null : !xFile.equals(yFile)) {
+                changed.add(path);
+            }
+        }
+    }
+
+    /** Return the entries of the tree with UID by name, or none if UID is
+     *  null. */
+    private static TreeMap<String, Entry> entriesByName(String uid) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (uid != null) {
+            for (Entry entry : read(uid)) {
+                entries.put(entry._name, entry);
+            }
+        }
+        return entries;
+    }
+
+    /** Write the length of STR in UTF-8 and then its bytes to OUT. */
+    private static void writeString(DataOutputStream out, String str)
+        throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a string written to IN by writeString. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
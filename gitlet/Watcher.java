@@ -0,0 +1,478 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static gitlet.MainUtils.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** A monitor of the working directory, so that status and the
+ *  untracked-file checks of checkout, reset and merge examine only the
+ *  paths changed since they last ran. The watch command runs the monitor
+ *  (run) until watch --stop: it watches every directory of the working
+ *  tree with a WatchService and appends lines to .gitlet/watch-log:
+ *  "t [TOKEN]" first, naming this run of the monitor; "d [PATH]" for each
+ *  path created, modified or deleted; "o" when events were lost; and
+ *  "c [NAME]" once it has seen the cookie file .gitlet/[NAME] and logged
+ *  every event before it. .gitlet/watch.pid holds "[PID] [TOKEN]" while
+ *  the monitor runs.
+ *
+ *  Asking for the working files (files) creates a cookie and waits for
+ *  the monitor to report it, so every change made before is in the log.
+ *  .gitlet/watch-state holds the token and log offset of the last answer
+ *  and .gitlet/watch-files the working files then; only the paths logged
+ *  since are looked at again, and their stat cache entries are dropped,
+ *  so the cached UIDs of all other files can be used without a stat (see
+ *  trusted). If the monitor is not running, does not answer within
+ *  SYNC_TIMEOUT, lost events or is not the run the state was saved for,
+ *  the working tree is scanned in full instead (scanned).
+ *  @author Thu Nguyen
+ */
+class Watcher {
+    /** Process ID and token of the running monitor. */
+    static final File PID_FILE = join(DOT_GITLET_DIR.toString(),
+            "watch.pid");
+    /** Events logged by the running monitor. */
+    static final File LOG_FILE = join(DOT_GITLET_DIR.toString(),
+            "watch-log");
+    /** Token and log offset of the last answer. */
+    static final File STATE_FILE = join(DOT_GITLET_DIR.toString(),
+            "watch-state");
+    /** Working files at the last answer, one per line. */
+    static final File FILES_FILE = join(DOT_GITLET_DIR.toString(),
+            "watch-files");
+    /** Beginning of the names of cookie files. */
+    static final String COOKIE_PREFIX = "watch-cookie-";
+    /** Milliseconds to wait for the monitor to report a cookie. */
+    static final long SYNC_TIMEOUT = 1000;
+    /** Milliseconds between reads of the log while waiting. */
+    static final long SYNC_POLL = 2;
+    /** Once the log is longer than this, the monitor starts a new run,
+     *  and the next answer scans the working tree in full. */
+    static final long LOG_LIMIT = 1 << 20;
+
+    /** Token of the run the last answer came from, or null. */
+    private static String _token;
+    /** Log offset just past the last answer. */
+    private static long _offset;
+    /** Working files at the last answer, or null if not known. */
+    private static TreeSet<String> _files;
+    /** Whether the last call of files found the running monitor. */
+    private static boolean _synced;
+    /** Whether the state changed since it was read. */
+    private static boolean _dirty;
+    /** Whether the set of files changed since it was read. */
+    private static boolean _filesDirty;
+
+    /* Queries. */
+
+    /** Return the working files, sorted, as the running monitor reports
+     *  them, or null if the working tree must be scanned instead. */
+    static List<String> files() {
+        String token = running();
+        _synced = false;
+        if (token == null) {
+            return null;
+        }
+        if (_files == null) {
+            load();
+        }
+        boolean current = token.equals(_token) && _files != null;
+        long from = current ? _offset : 0;
+        List<String> lines = sync(token, from);
+        if (lines == null) {
+            return null;
+        }
+        _synced = true;
+        if (!current || lines.contains("o")) {
+            _token = token;
+            _files = null;
+            return null;
+        }
+        for (String line : lines) {
+            if (line.startsWith("d ")) {
+                reexamine(line.substring(2));
+            }
+        }
+        _dirty = true;
+        return new ArrayList<>(_files);
+    }
+
+    /** Record FILES, the working files found by a full scan instead of an
+     *  answer from files. If the monitor answered, they begin a new state
+     *  of its current run, and stat cache entries that no longer match
+     *  their files are dropped. */
+    static void scanned(List<String> files) {
+        if (!_synced) {
+            return;
+        }
+        StatCache.validate(files);
+        _files = new TreeSet<>(files);
+        _dirty = true;
+        _filesDirty = true;
+    }
+
+    /** Return whether the monitor answered the last call of files, so
+     *  that the stat cache entries of files not reported changed hold the
+     *  UIDs of their current contents. */
+    static boolean trusted() {
+        return _synced && _files != null;
+    }
+
+    /** Write out the state if it changed. */
+    static void save() {
+        if (!_dirty || _files == null
+                || !DOT_GITLET_DIR.toFile().isDirectory()) {
+            return;
+        }
+        if (_filesDirty) {
+            writeContents(FILES_FILE, String.join("\n", _files));
+        }
+        writeContents(STATE_FILE, _token + " " + _offset);
+        _dirty = _filesDirty = false;
+    }
+
+    /** Look at the working file or directory NAME again, which the
+     *  monitor reported changed, updating the files and dropping stat
+     *  cache entries under it. */
+    private static void reexamine(String name) {
+        Iterator<String> under = _files.subSet(name + "/", name + "0")
+                .iterator();
+        while (under.hasNext()) {
+            StatCache.forget(under.next());
+            under.remove();
+        }
+        _files.remove(name);
+        StatCache.forget(name);
+        Path path = Paths.get(WORK_DIR_STR, name);
+        if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            _files.add(name);
+        } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            _files.addAll(WorkTree.scan(name));
+        }
+        _filesDirty = true;
+    }
+
+    /** Create a cookie and wait for the monitor of run TOKEN to report
+     *  it, reading the log from offset FROM. Return the lines logged
+     *  before the cookie and set the offset past it, or return null if the
+     *  monitor does not answer in time or started another run. */
+    private static List<String> sync(String token, long from) {
+        String cookie = COOKIE_PREFIX + ProcessHandle.current().pid() + "-"
+                + System.nanoTime();
+        File cookieFile = join(DOT_GITLET_DIR.toString(), cookie);
+        try {
+            Files.createFile(cookieFile.toPath());
+        } catch (IOException excp) {
+            return null;
+        }
+        try {
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            while (System.currentTimeMillis() < deadline) {
+                byte[] bytes = readLog(from);
+                if (bytes == null) {
+                    return null;
+                }
+                ArrayList<String> lines = new ArrayList<>();
+                int start = 0;
+                for (int i = 0; i < bytes.length; i += 1) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+                    String line = new String(bytes, start, i - start,
+                            StandardCharsets.UTF_8);
+                    start = i + 1;
+                    if (line.equals("c " + cookie)) {
+                        _offset = from + start;
+                        return header(token) ? lines : null;
+                    }
+                    lines.add(line);
+                }
+                Thread.sleep(SYNC_POLL);
+            }
+            return null;
+        } catch (InterruptedException excp) {
+            return null;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** Return the bytes of the log from offset FROM to its end, or null if
+     *  it is shorter than FROM. */
+    private static byte[] readLog(long from) {
+        try (RandomAccessFile in = new RandomAccessFile(LOG_FILE, "r")) {
+            if (in.length() < from) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) (in.length() - from)];
+            in.seek(from);
+            in.readFully(bytes);
+            return bytes;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return whether the log begins the run with TOKEN. */
+    private static boolean header(String token) {
+        byte[] expected = ("t " + token + "\n").getBytes(
+                StandardCharsets.UTF_8);
+        try (RandomAccessFile in = new RandomAccessFile(LOG_FILE, "r")) {
+            byte[] bytes = new byte[expected.length];
+            in.readFully(bytes);
+            return Arrays.equals(bytes, expected);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Read the state of the last answer, if any. */
+    private static void load() {
+        if (!STATE_FILE.isFile() || !FILES_FILE.isFile()) {
+            return;
+        }
+        String[] state = readContentsAsString(STATE_FILE).split(" ");
+        if (state.length != 2) {
+            return;
+        }
+        try {
+            _offset = Long.parseLong(state[1]);
+        } catch (NumberFormatException excp) {
+            return;
+        }
+        _token = state[0];
+        _files = new TreeSet<>(readFileLines(FILES_FILE));
+    }
+
+    /** Return the token of the running monitor, or null if none runs. */
+    static String running() {
+        if (!PID_FILE.isFile()) {
+            return null;
+        }
+        String[] pid = readContentsAsString(PID_FILE).trim().split(" ");
+        try {
+            if (pid.length == 2 && ProcessHandle.of(Long.parseLong(pid[0]))
+                    .map(ProcessHandle::isAlive).orElse(false)) {
+                return pid[1];
+            }
+        } catch (NumberFormatException excp) {
+            return null;
+        }
+        return null;
+    }
+
+    /* The monitor. */
+
+    /** Directories watched, by their keys. */
+    private static HashMap<WatchKey, Path> _watched = new HashMap<>();
+    /** The monitor's watch service. */
+    private static WatchService _service;
+    /** Key of .gitlet, watched for cookies and the process ID file. */
+    private static WatchKey _repository;
+    /** Token of the monitor's current run. */
+    private static String _run;
+
+    /** Run the monitor until watch --stop deletes its process ID file. */
+    static void run() {
+        if (running() != null) {
+            throw error("A watcher is already running.");
+        }
+        try (WatchService service = FileSystems.getDefault()
+                .newWatchService()) {
+            _service = service;
+            _repository = DOT_GITLET_DIR.register(service, ENTRY_CREATE,
+                    ENTRY_DELETE);
+            begin();
+            register(Paths.get(WORK_DIR_STR), null);
+            writeContents(PID_FILE, ProcessHandle.current().pid() + " "
+                    + _run);
+            Runtime.getRuntime().addShutdownHook(new Thread(Watcher::stop));
+            while (!stopped()) {
+                ArrayList<String> lines = new ArrayList<>();
+                ArrayList<String> cookies = new ArrayList<>();
+                for (WatchKey key = service.take(); key != null;
+                     key = service.poll()) {
+                    handle(key, lines, cookies);
+                }
+                if (LOG_FILE.length() > LOG_LIMIT) {
+                    begin();
+                    writeContents(PID_FILE, ProcessHandle.current().pid()
+                            + " " + _run);
+                    lines.clear();
+                }
+                for (String cookie : cookies) {
+                    lines.add("c " + cookie);
+                }
+                append(lines);
+            }
+        } catch (IOException | InterruptedException
+                 | ClosedWatchServiceException excp) {
+            throw error("Watcher stopped: %s", excp.getMessage());
+        } finally {
+            stop();
+        }
+    }
+
+    /** Stop the running monitor. */
+    static void requestStop() {
+        if (running() == null) {
+            throw error("No watcher is running.");
+        }
+        PID_FILE.delete();
+        Durability.written(PID_FILE);
+    }
+
+    /** Add the events of KEY to LINES and the names of cookies it
+     *  reports to COOKIES, and reset it. */
+    private static void handle(WatchKey key, List<String> lines,
+                               List<String> cookies) throws IOException {
+        Path dir = _watched.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                lines.add("o");
+                register(Paths.get(WORK_DIR_STR), null);
+                continue;
+            }
+            String name = event.context().toString();
+            if (key == _repository) {
+                if (name.startsWith(COOKIE_PREFIX)
+                        && event.kind() == ENTRY_CREATE) {
+                    cookies.add(name);
+                }
+                continue;
+            } else if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve(name);
+            String fileName = WorkTree.nameOf(path.toString());
+            if (fileName == null) {
+                continue;
+            }
+            lines.add("d " + fileName);
+            if (event.kind() == ENTRY_DELETE) {
+                unregister(path);
+            } else if (event.kind() == ENTRY_CREATE
+                    && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                register(path, lines);
+            }
+        }
+        if (!key.reset()) {
+            _watched.remove(key);
+        }
+    }
+
+    /** Watch DIR and every directory under it, except .gitlet. If LINES
+     *  is not null, add a "d" line to it for every file found. */
+    private static void register(Path dir, List<String> lines)
+        throws IOException {
+        WatchKey key = dir.register(_service, ENTRY_CREATE, ENTRY_DELETE,
+                ENTRY_MODIFY);
+        Path old = _watched.put(key, dir);
+        if (old != null && !old.equals(dir)) {
+            key.cancel();
+            _watched.put(dir.register(_service, ENTRY_CREATE, ENTRY_DELETE,
+                    ENTRY_MODIFY), dir);
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = WorkTree.nameOf(entry.toString());
+                if (name == null) {
+                    continue;
+                } else if (Files.isDirectory(entry,
+                        LinkOption.NOFOLLOW_LINKS)) {
+                    register(entry, lines);
+                } else if (lines != null) {
+                    lines.add("d " + name);
+                }
+            }
+        }
+    }
+
+    /** Stop watching the directories at or under PATH, which was
+     *  deleted or moved away. */
+    private static void unregister(Path path) {
+        Iterator<Map.Entry<WatchKey, Path>> keys =
+            _watched.entrySet().iterator();
+        while (keys.hasNext()) {
+            Map.Entry<WatchKey, Path> entry = keys.next();
+            if (entry.getValue().startsWith(path)) {
+                entry.getKey().cancel();
+                keys.remove();
+            }
+        }
+    }
+
+    /** Begin a new run: start the log afresh under a new token. */
+    private static void begin() {
+        _run = sha1(ProcessHandle.current().pid() + " " + System.nanoTime());
+        writeContents(LOG_FILE, "t " + _run + "\n");
+    }
+
+    /** Append LINES to the log. */
+    private static void append(List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(
+                StandardCharsets.UTF_8));
+        try (FileChannel out = FileChannel.open(LOG_FILE.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /** Return whether the process ID file no longer names this run. */
+    private static boolean stopped() {
+        return !PID_FILE.isFile() || !readContentsAsString(PID_FILE)
+                .equals(ProcessHandle.current().pid() + " " + _run);
+    }
+
+    /** Remove this run's files, unless another run replaced them. */
+    private static synchronized void stop() {
+        if (_run == null) {
+            return;
+        }
+        if (PID_FILE.isFile() && !stopped()) {
+            PID_FILE.delete();
+        }
+        if (running() == null) {
+            LOG_FILE.delete();
+            STATE_FILE.delete();
+            FILES_FILE.delete();
+        }
+        _run = null;
+    }
+}
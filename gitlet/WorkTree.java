@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+
+import static gitlet.MainUtils.*;
+
+/** The files of the working directory, found by a parallel walk. Each
+ *  directory is listed, and its entries' attributes read, by its own task
+ *  on a fork-join pool, so that directory reads and stats on different
+ *  directories overlap across cores. The .gitlet directory is never
+ *  entered. Paths are relative to the working directory, with
+ *  directories separated by "/", as files are named in commits.
+ *  @author Thu Nguyen
+ */
+class WorkTree {
+    /** Name of the repository directory, skipped by the walk. */
+    static final String REPOSITORY = ".gitlet";
+    /** Characters that make an operand a glob. */
+    static final Pattern GLOB = Pattern.compile("[*?\\[{]");
+
+    /** Return the paths of every regular file under the working
+     *  directory, sorted. Symbolic links are not followed. When a watcher
+     *  is running, only the paths it reports changed are looked at (see
+     *  Watcher). */
+    static List<String> files() {
+        List<String> files = Watcher.files();
+        if (files == null) {
+            files = scan("");
+            Watcher.scanned(files);
+        }
+        return files;
+    }
+
+    /** Return the paths of every regular file under the directory named
+     *  DIR, or under the working directory if DIR is empty, sorted. */
+    static List<String> scan(String dir) {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            List<String> files = pool.invoke(new Scan(
+                    Paths.get(WORK_DIR_STR, dir), dir.isEmpty() ? ""
+                    : dir + "/"));
+            Collections.sort(files);
+            return files;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return the names of the working files that OPERANDS name, sorted,
+     *  or null if one of them names none. An operand is a file; a
+     *  directory, standing for every file under it ("." for the whole
+     *  working tree); or a glob, matched against the names of all working
+     *  files, in which "*" stays within a directory and "**" does not. */
+    static TreeSet<String> matching(List<String> operands) {
+        TreeSet<String> names = new TreeSet<>();
+        List<String> all = null;
+        for (String operand : operands) {
+            if (GLOB.matcher(operand).find()) {
+                if (all == null) {
+                    all = files();
+                }
+                String glob = operand.startsWith("./") ? operand.substring(2)
+                        : operand;
+                PathMatcher matcher = FileSystems.getDefault()
+                        .getPathMatcher("glob:" + glob);
+                boolean matched = false;
+                for (String name : all) {
+                    if (matcher.matches(Paths.get(name))) {
+                        names.add(name);
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    return null;
+                }
+                continue;
+            }
+            Path root = Paths.get(WORK_DIR_STR).toAbsolutePath().normalize();
+            if (root.resolve(operand).normalize().equals(root)) {
+                names.addAll(all == null ? files() : all);
+                continue;
+            }
+            String name = nameOf(operand);
+            if (name == null) {
+                return null;
+            }
+            Path path = Paths.get(WORK_DIR_STR, name);
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                names.addAll(scan(name));
+            } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                names.add(name);
+            } else {
+                return null;
+            }
+        }
+        return names;
+    }
+
+    /** Return PATH, relative to the working directory or absolute, as the
+     *  name of a file in commits: relative, normalized and separated by
+     *  "/". Return null if PATH is outside the working directory or inside
+     *  .gitlet. */
+    static String nameOf(String path) {
+        Path root = Paths.get(WORK_DIR_STR).toAbsolutePath().normalize();
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root) || file.equals(root)) {
+            return null;
+        }
+        Path relative = root.relativize(file);
+        if (relative.getName(0).toString().equals(REPOSITORY)) {
+            return null;
+        }
+        return relative.toString().replace(
+                relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /** Return whether the file NAME cannot be committed alongside the
+     *  files named in PATHS: one of them is a directory holding NAME, or
+     *  NAME is a directory holding one of them. */
+    static boolean shadowed(String name, TreeSet<String> paths) {
+        for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+            if (paths.contains(name.substring(0, i))) {
+                return true;
+            }
+        }
+        return !paths.subSet(name + "/", name + "0").isEmpty();
+    }
+
+    /** Listing of one directory, forking a task per subdirectory. */
+    private static class Scan extends RecursiveTask<List<String>> {
+        /** Version of the serialized form RecursiveTask requires. */
+        private static final long serialVersionUID = 1L;
+        /** The directory listed. */
+        private final Path _dir;
+        /** Path of the directory relative to the working directory,
+         *  followed by "/", or empty for the working directory itself. */
+        private final String _prefix;
+
+        /** A listing of DIR, whose files are named beginning with
+         *  PREFIX. */
+        Scan(Path dir, String prefix) {
+            _dir = dir;
+            _prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            ArrayList<String> files = new ArrayList<>();
+            ArrayList<Scan> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                         Files.newDirectoryStream(_dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (_prefix.isEmpty() && name.equals(REPOSITORY)) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs = Files.readAttributes(entry,
+                            BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        Scan subdir = new Scan(entry, _prefix + name + "/");
+                        subdir.fork();
+                        subdirs.add(subdir);
+                    } else if (attrs.isRegularFile()) {
+                        files.add(_prefix + name);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Scan subdir : subdirs) {
+                files.addAll(subdir.join());
+            }
+            return files;
+        }
+    }
+}
@@ -3,7 +3,7 @@ from subprocess import \
      check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
+from os import chdir, environ, getcwd, mkdir, makedirs, remove, access, W_OK
 from shutil import copyfile, rmtree
 from math import log
 
@@ -58,7 +58,9 @@ The instructions each have one of the following forms:
           its output with LINE1, LINE2, etc., reporting an error if there is
           "sufficient" discrepency.  The <<< delimiter may be followed by
           an asterisk (*), in which case, the preceding lines are treated as 
-          Python regular expressions and matched accordingly. The directory
+          Python regular expressions and matched accordingly. The delimiter
+          may also end in an exit status N, as in "<<< 1" or "<<<* 1", in
+          which case gitlet.Main must exit with status N rather than 0. The directory
           or JAR file containing the gitlet.Main program is assumed to be
           in directory DIR specifed by --progdir (default is ..).
    = NAME F
@@ -140,11 +142,12 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
-def doExecute(cmnd, dir, timeout):
+def doExecute(cmnd, dir, timeout, status=0):
     here = getcwd()
     out = ""
     try:
@@ -152,8 +155,12 @@ def doExecute(cmnd, dir, timeout):
         full_cmnd = "{} {}".format(GITLET_COMMAND, cmnd)
         out = check_output(full_cmnd, shell=True, universal_newlines=True,
                            stdin=DEVNULL, stderr=STDOUT, timeout=timeout)
+        if status != 0:
+            return "java gitlet.Main exited with code 0", out
         return "OK", out
     except CalledProcessError as excp:
+        if excp.args[0] == status:
+            return "OK", excp.output
         return ("java gitlet.Main exited with code {}".format(excp.args[0]),
                 excp.output)
     except TimeoutExpired:
@@ -309,11 +316,12 @@ def doTest(test):
                         raise ValueError("unterminated command: {}"
                                          .format(line))
                     L = L.rstrip()
-                    if Match(r'<<<(\*?)', L):
+                    if Match(r'<<<(\*?)(?:\s+(\d+))?', L):
                         is_regexp = Group(1)
+                        status = int(Group(2) or 0)
                         break
                     expected.append(do_substs(L))
-                msg, out = doExecute(cmnd, cdir, timeout)
+                msg, out = doExecute(cmnd, cdir, timeout, status)
                 if verbose:
                     if out:
                         print(re.sub(r'(?m)^', '- ', chop_nl(out)))